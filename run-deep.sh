@@ -0,0 +1,55 @@
+#!/bin/bash
+# Regression check for very deep trees: a unary chain of 100000 S nodes
+# (over two words) is evaluated against itself with several settings,
+# none of them may run out of stack, and with fragment-size limit N a
+# chain of n nodes has n-k+1 matched gold fragments of size k <= N
+# Usage: ./run-deep.sh (after building freval.jar with ant)
+export CLASSPATH=.:bin/:jar/*
+DEPTH=100000
+TMP=$(mktemp -d)
+trap 'rm -rf $TMP' EXIT
+
+awk -v depth=$DEPTH 'BEGIN {
+	s = "( ";
+	for (i = 0; i < depth; i++) s = s "(S ";
+	s = s "(A a) (B b)";
+	for (i = 0; i < depth; i++) s = s ")";
+	print s ")";
+}' > $TMP/deep.gld
+cp $TMP/deep.gld $TMP/deep.tst
+
+# the chain nodes, and the bracket of the outer parentheses
+NODES=$((DEPTH + 1))
+FAILED=0
+
+# check LIMIT COUNTING THREADS
+check() {
+	sed -e "s/^Freval.fragmentSizeLimit=.*/Freval.fragmentSizeLimit=$1/" \
+		-e "s/^Freval.fragmentCounting=.*/Freval.fragmentCounting=$2/" \
+		-e "s/^Freval.enumerationThreads=.*/Freval.enumerationThreads=$3/" \
+		properties/default.properties > $TMP/deep.properties
+	java -Dproperties=$TMP/deep.properties -Dgold=$TMP/deep.gld \
+		-Dtest=$TMP/deep.tst -jar freval.jar > $TMP/out.txt 2>&1
+	STATUS=$?
+	# the rows of sentence 1: N, matched and gold fragments
+	WRONG=$(awk -v n=$NODES '$1 == 1 && $2 == 2 && $13 == "OK" &&
+		($6 != n - $3 + 1 || $7 != n - $3 + 1) { print }' $TMP/out.txt)
+	ROWS=$(awk '$1 == 1 && $2 == 2 && $13 == "OK"' $TMP/out.txt | wc -l)
+	if [ $STATUS -ne 0 ] || grep -q "Exception\|StackOverflowError" $TMP/out.txt ||
+			[ -n "$WRONG" ] || [ $ROWS -ne $1 ]; then
+		echo "FAILED: limit $1, $2, $3 thread(s)"
+		grep -m 5 "Exception\|StackOverflowError" $TMP/out.txt
+		echo "$WRONG" | head -5
+		FAILED=1
+	else
+		echo "ok: limit $1, $2, $3 thread(s)"
+	fi
+}
+
+check 1 polynomial 1
+check 5 polynomial 1
+check 5 enumeration 1
+check 5 enumeration 2
+check 5 crosscheck 1
+
+exit $FAILED
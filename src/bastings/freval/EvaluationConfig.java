@@ -0,0 +1,290 @@
+package bastings.freval;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+import bastings.freval.util.SymbolTable;
+
+/**
+ * The evaluation settings, read once from the {@link Settings}
+ *
+ * The evaluator gets an instance of this class, so it does not have to
+ * look up and parse properties for every sentence (or every fragment).
+ * The settings do not change after construction, so an instance can be
+ * shared by all threads.
+ */
+public class EvaluationConfig {
+
+	/**
+	 * How fragments are counted (Freval.fragmentCounting)
+	 */
+	public enum FragmentCounting {
+
+		/** count in closed form, without generating fragments */
+		POLYNOMIAL,
+
+		/** generate every fragment */
+		ENUMERATION,
+
+		/** count in closed form, and compare with the enumeration */
+		CROSSCHECK
+	}
+
+	private final int fragmentSizeLimit;
+	private final boolean labeled;
+	private final boolean adjustLabels;
+	private final FragmentCounting fragmentCounting;
+	private final int enumerationThreads;
+	private final long enumerationBudget;
+	private final long enumerationTimeBudget;
+	private final int countCacheSize;
+	private final int maxErrors;
+	private final int[] cutOffLengths;
+	private final SymbolTable symbols;
+
+	/**
+	 * Simplified label ID + 1 by label ID, 0 if not known yet
+	 * (only a cache, @see {@link #getSimplifiedLabel(int)})
+	 */
+	private volatile int[] simplifiedLabels = new int[256];
+
+	/**
+	 * Compiles the configuration from the loaded properties
+	 * @throws IllegalArgumentException if a value is not valid
+	 */
+	public EvaluationConfig() {
+
+		fragmentSizeLimit = (int) Settings.getInteger("fragmentSizeLimit");
+		labeled = Settings.getBoolean("labeled");
+		adjustLabels = Settings.getBoolean("adjustLabels");
+		maxErrors = (int) Settings.getInteger("maxErrors");
+
+		String counting = Settings.get("fragmentCounting");
+		if (counting == null) {
+			fragmentCounting = FragmentCounting.POLYNOMIAL;
+		} else {
+			try {
+				fragmentCounting = FragmentCounting.valueOf(
+						counting.trim().toUpperCase());
+			} catch (IllegalArgumentException e) {
+				throw new IllegalArgumentException(
+						"Unknown fragmentCounting: " + counting);
+			}
+		}
+
+		String threads = Settings.get("enumerationThreads");
+		enumerationThreads = (threads == null ? 1 :
+			Integer.parseInt(threads.trim()));
+
+		enumerationBudget = getLong("enumerationBudget");
+		enumerationTimeBudget = getLong("enumerationTimeBudget");
+
+		countCacheSize = (int) getLong("countCacheSize");
+
+		String[] lengths = Settings.get("cutOffLengths").split("\\s+");
+		cutOffLengths = new int[lengths.length];
+		for (int i = 0; i < lengths.length; i++) {
+			cutOffLengths[i] = Integer.parseInt(lengths[i]);
+		}
+
+		symbols = Settings.symbols;
+	}
+
+	/**
+	 * @return the largest fragment size to count, 0 for no limit
+	 */
+	public int getFragmentSizeLimit() {
+		return fragmentSizeLimit;
+	}
+
+	/**
+	 * @return true for labeled bracketing
+	 */
+	public boolean isLabeled() {
+		return labeled;
+	}
+
+	/**
+	 * @return true if labels are simplified (NP-SUBJ becomes NP)
+	 */
+	public boolean isAdjustLabels() {
+		return adjustLabels;
+	}
+
+	/**
+	 * @return how fragments are counted
+	 */
+	public FragmentCounting getFragmentCounting() {
+		return fragmentCounting;
+	}
+
+	/**
+	 * @return number of threads to enumerate the fragments of a sentence,
+	 * 1 for none, 0 or less for all processors
+	 */
+	public int getEnumerationThreads() {
+		return enumerationThreads;
+	}
+
+	/**
+	 * @return maximum number of fragments enumerated for a sentence,
+	 * 0 for no limit
+	 */
+	public long getEnumerationBudget() {
+		return enumerationBudget;
+	}
+
+	/**
+	 * @return maximum time in milliseconds to enumerate the fragments of
+	 * a sentence, 0 for no limit
+	 */
+	public long getEnumerationTimeBudget() {
+		return enumerationTimeBudget;
+	}
+
+	/**
+	 * @return maximum number of subtrees of which the fragment counts are
+	 * kept for later sentences, 0 for none
+	 */
+	public int getCountCacheSize() {
+		return countCacheSize;
+	}
+
+	/**
+	 * @return true if the fragments are enumerated (for the counts, the
+	 * crosscheck or the debug level 4 output)
+	 */
+	public boolean isEnumerating() {
+		return fragmentCounting != FragmentCounting.POLYNOMIAL ||
+			Settings.debug > 3;
+	}
+
+	/**
+	 * @return true if the enumeration of a sentence has a budget
+	 */
+	public boolean hasEnumerationBudget() {
+		return enumerationBudget > 0 || enumerationTimeBudget > 0;
+	}
+
+	/**
+	 * @return true if only brackets (fragments of size 1) are counted and
+	 * they can be counted directly: the fragment-size limit is 1, the
+	 * fragments are not crosschecked, printed or cached, an enumeration
+	 * would not have a budget, and the debug level does not print the
+	 * trees as evaluated
+	 * (@see {@link bastings.freval.evaluator.BracketCounter})
+	 */
+	public boolean isCountingBrackets() {
+		return fragmentSizeLimit == 1 && countCacheSize <= 0 &&
+			Settings.debug <= 1 &&
+			(fragmentCounting == FragmentCounting.POLYNOMIAL ||
+			(fragmentCounting == FragmentCounting.ENUMERATION &&
+			!hasEnumerationBudget()));
+	}
+
+	/**
+	 * @return a checksum (CRC32) of the settings that the normalized trees
+	 * depend on: the delete labels, the delete labels for length, the
+	 * quote labels and adjustLabels (e.g. to tell if a cache of trees is
+	 * still valid)
+	 */
+	public long getNormalizationChecksum() {
+
+		StringBuilder s = new StringBuilder();
+		s.append("deleteLabels=").append(Settings.deleteLabels).append('\n');
+		s.append("deleteLabelsForLength=")
+			.append(Settings.deleteLabelsForLength).append('\n');
+		s.append("quoteLabels=").append(Settings.quoteLabels).append('\n');
+		s.append("adjustLabels=").append(adjustLabels);
+
+		CRC32 crc = new CRC32();
+		crc.update(s.toString().getBytes(StandardCharsets.UTF_8));
+		return crc.getValue();
+	}
+
+	/**
+	 * @return number of processing errors after which we halt
+	 */
+	public int getMaxErrors() {
+		return maxErrors;
+	}
+
+	/**
+	 * @return the cutoff lengths for the totals
+	 */
+	public int[] getCutOffLengths() {
+		return cutOffLengths.clone();
+	}
+
+	/**
+	 * @return the labels and words, @see {@link Settings#symbols}
+	 */
+	public SymbolTable getSymbols() {
+		return symbols;
+	}
+
+	/**
+	 * Returns an optional numeric property
+	 * @param key
+	 * @return value, 0 if the property is not set
+	 */
+	private static long getLong(String key) {
+		String value = Settings.get(key);
+		return (value == null ? 0 : Long.parseLong(value.trim()));
+	}
+
+	/**
+	 * Returns the ID of the simplified label (e.g. "NP-SUBJ" becomes "NP",
+	 * if labels are adjusted), every label is only simplified once
+	 * @param label label ID
+	 * @return simplified label ID
+	 */
+	public int getSimplifiedLabel(int label) {
+
+		int[] cache = simplifiedLabels;
+		if (label < cache.length && cache[label] != 0) {
+			return cache[label] - 1;
+		}
+
+		int simplified = symbols.getID(
+				simplifyLabel(symbols.getSymbol(label), adjustLabels));
+
+		synchronized (this) {
+			cache = simplifiedLabels;
+			if (label >= cache.length) {
+				cache = Arrays.copyOf(cache,
+						Math.max(2 * cache.length, label + 1));
+			}
+			cache[label] = simplified + 1;
+			simplifiedLabels = cache;
+		}
+
+		return simplified;
+	}
+
+	/**
+	 * Returns the part of the node label before a possible - (dash) or =
+	 * e.g. "NP-SUBJ" becomes "NP"
+	 * <b>Note: hard-coded exception for "-NONE-", which is returned as-is</b>
+	 * @param label
+	 * @param adjustLabels if false, the label is returned as-is
+	 * @return simplified label
+	 */
+	public static String simplifyLabel(String label, boolean adjustLabels) {
+
+		if (!adjustLabels || label.equals("-NONE-")) {
+			return label;
+		}
+
+		for (int i = 0; i < label.length(); i++) {
+			char c = label.charAt(i);
+			if (c == '-' || c == '=') {
+				return label.substring(0, i);
+			}
+		}
+
+		return label;
+	}
+
+}
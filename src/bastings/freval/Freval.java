@@ -2,17 +2,34 @@ package bastings.freval;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Collections;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
 
+import bastings.freval.evaluator.BudgetEvaluationInfo;
 import bastings.freval.evaluator.EvaluationInfo;
 import bastings.freval.evaluator.Evaluator;
+import bastings.freval.evaluator.FragmentCountCache;
+import bastings.freval.evaluator.GoldCountCache;
+import bastings.freval.reader.CachedTreebankReader;
+import bastings.freval.reader.MappedTreebankReader;
 import bastings.freval.reader.PennReader;
+import bastings.freval.reader.TreeReader;
 import bastings.freval.util.*;
+import bastings.freval.writer.*;
 
 public class Freval {
 
-	private PennReader gpr;
-	private PennReader tpr;
+	private TreeReader gpr;
+	private TreeReader tpr;
+
+	/**
+	 * The settings, compiled once, and the evaluator using them
+	 */
+	private EvaluationConfig config;
+	private Evaluator evaluator;
 	
 	/**
 	 *  read errors, skipped sentences, length mismatch, word mismatch
@@ -20,6 +37,19 @@ public class Freval {
 	 *  the program will halt
 	 */
 	private int processingErrorCount = 0; 
+
+	/**
+	 * The lines to evaluate: from firstLine up to (not including) endLine,
+	 * set with -Dfrom and -Dto (endLine 0 for all lines after firstLine)
+	 * The lines before firstLine are read but not parsed.
+	 */
+	private int firstLine;
+	private int endLine;
+
+	/**
+	 * Number of lines read (the line number of the last tree pair)
+	 */
+	private int line = 0;
 	
 	/**
 	 * To store all Totals instances, which keep result totals
@@ -27,18 +57,74 @@ public class Freval {
 	 */
 	private List<Totals> totals;
 
+	/**
+	 * Writes the result of every sentence, @see {@link #openOutput()}
+	 */
+	private ResultWriter writer;
+
+	/**
+	 * Where the summary (the totals) is printed
+	 */
+	private PrintStream summary;
+
+	/**
+	 * Buffer size of the output
+	 */
+	private static final int OUTPUT_BUFFER_SIZE = 1 << 16;
+
+	/**
+	 * Number of results that can wait for an asynchronous writer
+	 */
+	private static final int OUTPUT_QUEUE_SIZE = 1024;
+
 	/**
 	 * Fire up an instance of Freval that loads the specified tree files
+	 * With -Dreader=mapped the files are memory-mapped and parsed
+	 * on as many threads as there are evaluation threads, with
+	 * -DgoldCache=dir the gold trees are read from a cache in dir
+	 * (@see {@link CachedTreebankReader}, not at debug level 5, which
+	 * prints what the parser does)
 	 * @param goldFilename
 	 * @param testFilename
 	 * @throws FileNotFoundException
+	 * @throws IOException if a file cannot be mapped
 	 */
 	public Freval(String goldFilename, String testFilename) 
-	throws FileNotFoundException {		
+	throws IOException {		
+
+		config = new EvaluationConfig();
+
+		// gold counts of earlier runs, for the enumeration
+		String goldCounts = System.getProperty("goldCountCache");
+		evaluator = new Evaluator(config, (goldCounts == null ? null :
+			GoldCountCache.open(goldCounts, config.getFragmentSizeLimit())));
+
+		String goldCache = System.getProperty("goldCache");
+		if (goldCache != null && Settings.debug <= 4) {
+			gpr = CachedTreebankReader.open(goldFilename, "Gold", goldCache,
+					config);
+		}
+
+		if ("mapped".equals(System.getProperty("reader"))) {
+			if (gpr == null) {
+				gpr = new MappedTreebankReader(goldFilename, "Gold",
+						getThreadCount());
+			}
+			tpr = new MappedTreebankReader(testFilename, "Test", getThreadCount());
+		} else {
+			if (gpr == null) {
+				gpr = new PennReader(goldFilename, "Gold");
+			}
+			tpr = new PennReader(testFilename, "Test");
+		}
+
+		firstLine = Integer.getInteger("from", 1);
+		endLine = Integer.getInteger("to", 0);
+		if (firstLine < 1 || (endLine != 0 && endLine <= firstLine)) {
+			throw new IllegalArgumentException(String.format(
+					"Invalid line range [%d,%d)", firstLine, endLine));
+		}
 
-		gpr = new PennReader(goldFilename, "Gold");
-		tpr = new PennReader(testFilename, "Test");
-		
 		initTotals();
 		
 	}
@@ -51,11 +137,23 @@ public class Freval {
 	private void initTotals() {
 		totals = new ArrayList<Totals>(3);
 		totals.add(new Totals()); // default "all" totals
-		String[] cutOffLenghts = Settings.get("cutOffLengths").split("\\s+");
-		for(String s : cutOffLenghts) {
-			int cutoff = Integer.parseInt(s);
+		for(int cutoff : config.getCutOffLengths()) {
 			totals.add(new Totals(cutoff));
 		}
+
+		// the summary shows the enumeration budget, if there is one
+		if (config.isEnumerating() && config.hasEnumerationBudget()) {
+			List<String> budget = new ArrayList<String>(2);
+			if (config.getEnumerationBudget() > 0) {
+				budget.add(config.getEnumerationBudget() + " fragments");
+			}
+			if (config.getEnumerationTimeBudget() > 0) {
+				budget.add(config.getEnumerationTimeBudget() + " ms");
+			}
+			for(Totals t : totals) {
+				t.setEnumerationBudget(String.join(", ", budget));
+			}
+		}
 	}
 	
 	/**
@@ -64,32 +162,174 @@ public class Freval {
 	private void start() throws Exception {
 		
 		// print the columns
-		System.out.println(String.format(
-				"%4s    %4s    %4s    " +
-				"%6s    %6s    " +
-				"%8s    %8s    %8s    " +
-				"%4s    %4s    " +
-				"%4s    %6s    %6s",
-				"ID", "Len", "N", 
-				"R", "P",
-				"Matched", "GoldFrag", "TestFrag",
-				"XBkt", "Wrds",
-				"TgOK", "TagAcc", "Status"));
+		openOutput();
+		writer.writeHeader();
 		
-		Node<NodeInfo> goldTree = null;
-		Node<NodeInfo> testTree = null;
+		int threads = getThreadCount();
+
+		if (threads == 1) {
+			evaluateSequential();
+		} else {
+			evaluateParallel(threads);
+		}
+		gpr.close();
+		tpr.close();
+
+		// print summary, after all results
+		writer.flush();
+		for(Totals t : totals) {
+			summary.println(t);
+		}
+		summary.flush();
+		writer.close();
+
+		// the totals of these lines, to be merged with those of other lines
+		String partial = System.getProperty("partial");
+		if (partial != null) {
+			new PartialResult(totals, processingErrorCount).write(partial);
+		}
+
+		// the gold counts of this run, for the next ones
+		GoldCountCache goldCounts = evaluator.getGoldCountCache();
+		if (goldCounts != null) {
+			try {
+				goldCounts.save();
+			} catch (IOException e) {
+				System.err.println(String.format(
+						"Warning: gold count cache not saved (%s)", 
+						e.getMessage()));
+			}
+		}
+
+		// level 1 debug - cache use
+		FragmentCountCache cache = evaluator.getCountCache();
+		if (Settings.debug > 0 && cache != null) {
+			System.err.println(String.format(
+					"Fragment count cache: %d hits, %d misses, %d subtrees", 
+					cache.getHits(), cache.getMisses(), cache.size()));
+		}
+		if (Settings.debug > 0 && goldCounts != null) {
+			System.err.println(String.format(
+					"Gold count cache: %d hits, %d misses, %d trees", 
+					goldCounts.getHits(), goldCounts.getMisses(), 
+					goldCounts.size()));
+		}
+
+		System.err.println(String.format(
+				"\n---\nFinished with %d processing errors",processingErrorCount));
+	}
+
+	/**
+	 * Opens the output for the results of the sentences, set with
+	 * -Doutput (a file, by default the standard output) and -Dformat:
+	 * text (the default), tsv, jsonl or binary
+	 * With -DasyncOutput=true the results are written on a thread of 
+	 * their own
+	 * 
+	 * The summary is printed after the results in text, and otherwise 
+	 * on the standard output (or the error output if the results go to
+	 * the standard output)
+	 * @throws IOException if the file cannot be created
+	 * @throws IllegalArgumentException if the format is not known
+	 */
+	private void openOutput() throws IOException {
+
+		String format = System.getProperty("format", "text");
+		if (!Arrays.asList("text", "tsv", "jsonl", "binary").contains(format)) {
+			throw new IllegalArgumentException("Unknown format: " + format);
+		}
+
+		String filename = System.getProperty("output");
+		OutputStream out = (filename == null ? 
+				System.out : new FileOutputStream(filename));
+
+		if (format.equals("text")) {
+			PrintStream text = (filename == null ? System.out : 
+				new PrintStream(new BufferedOutputStream(
+						out, OUTPUT_BUFFER_SIZE)));
+			writer = new TextResultWriter(text);
+			summary = text;
+		} else {
+			if (format.equals("tsv")) {
+				writer = new TsvResultWriter(out);
+			} else if (format.equals("jsonl")) {
+				writer = new JsonLinesResultWriter(out);
+			} else {
+				writer = new BinaryResultWriter(out);
+			}
+			summary = (filename == null ? System.err : System.out);
+		}
+
+		// (not at debug level 4, it prints the fragments on the 
+		// standard output, in between the results)
+		if (Boolean.getBoolean("asyncOutput") && Settings.debug <= 3) {
+			writer = new AsyncResultWriter(writer, OUTPUT_QUEUE_SIZE);
+		}
+	}
+
+	/**
+	 * Returns the number of threads to use, set with -Dthreads
+	 * (default 1, 0 or less means all processors)
+	 * @return number of threads
+	 */
+	private static int getThreadCount() {
+		int threads = Integer.getInteger("threads", 1);
+		if (threads <= 0) {
+			threads = Runtime.getRuntime().availableProcessors();
+		}
+		return threads;
+	}
+
+	/**
+	 * Reads the next pair of trees
+	 * Read errors are counted, and the pair is skipped
+	 * @param readErrors where the read errors go, or null to print them
+	 * @return gold and test tree, or null if there are no more trees
+	 * @throws RuntimeException if there are too many errors
+	 */
+	private Pair<Node<NodeInfo>, Node<NodeInfo>> nextTreePair(
+			List<IOException> readErrors) {
 
 		while( true ) {
 
+			// stop at the end of the range
+			if (endLine > 0 && line + 1 >= endLine) {
+				return null;
+			}
+			line++;
+
+			Node<NodeInfo> goldTree = null;
+			Node<NodeInfo> testTree = null;
+
 			try {
 				
-				goldTree = gpr.nextTree();
+				// skip the lines before the range
+				if (line < firstLine) {
+					boolean more = gpr.skipTree();
+					tpr.skipTree();
+					if (!more) {
+						return null;
+					}
+					continue;
+				}
+
+				try {
+					goldTree = gpr.nextTree();
+				} catch(IOException e) {
+					// keep the test trees in line with the gold trees
+					tpr.skipTree();
+					throw e;
+				}
 				testTree = tpr.nextTree();
 				
 			} catch(IOException e) {
-				System.err.println(e.getMessage());
+				if (readErrors == null) {
+					System.err.println(e.getMessage());
+				} else {
+					readErrors.add(e);
+				}
 				processingErrorCount++;
-				if (processingErrorCount > Settings.getInteger("maxErrors")) {
+				if (processingErrorCount > config.getMaxErrors()) {
 					throw new RuntimeException("Maximum number " +
 							"of allowed errors exceeded. Halted.");
 				}
@@ -98,27 +338,206 @@ public class Freval {
 			
 			// stop evaluating when there are no more trees
 			if (goldTree == null) {
-				break;
+				return null;
 			}
-			
+
+			return new Pair<Node<NodeInfo>, Node<NodeInfo>>(goldTree, testTree);
+		}
+	}
+
+	/**
+	 * Evaluates all tree pairs one after the other on this thread
+	 */
+	private void evaluateSequential() throws IOException {
+
+		Pair<Node<NodeInfo>, Node<NodeInfo>> trees;
+
+		while( (trees = nextTreePair(null)) != null ) {
+
 			// print treeID, length
-			EvaluationInfo result = Evaluator.evaluate(goldTree, testTree);
+			EvaluationInfo result = evaluator.evaluate(
+					trees.getFirst(), trees.getSecond());
 
-			System.out.print(result);
+			writer.write(result);
+			printMessage(result);
 
 			for(Totals t : totals) {
 				t.addResult(result);
 			}
-			
 		}
+	}
 
-		// print summary
-		for(Totals t : totals) {
-			System.out.println(t);
+	/**
+	 * Evaluates tree pairs on a pool of worker threads
+	 * 
+	 * A reader thread reads the tree pairs and hands them to the workers,
+	 * this thread prints the results in the order the trees were read,
+	 * and the messages of the errors (read errors too) in between.
+	 * Every worker keeps its own totals, these are merged at the end,
+	 * so the output is the same as that of {@link #evaluateSequential()}
+	 * 
+	 * <b>Note: debug output of different sentences may be interleaved</b>
+	 * @param threads number of worker threads
+	 * @throws Exception
+	 */
+	private void evaluateParallel(int threads) throws Exception {
+
+		final ExecutorService workers = Executors.newFixedThreadPool(threads);
+
+		// totals per worker thread
+		final List<List<Totals>> workerTotals = 
+			Collections.synchronizedList(new ArrayList<List<Totals>>(threads));
+		final ThreadLocal<List<Totals>> localTotals = 
+			new ThreadLocal<List<Totals>>() {
+			@Override
+			protected List<Totals> initialValue() {
+				List<Totals> list = new ArrayList<Totals>(totals.size());
+				for(Totals t : totals) {
+					list.add(new Totals(t.getCutOffLength()));
+				}
+				workerTotals.add(list);
+				return list;
+			}
+		};
+
+		// results in the order of the trees, a null result marks the end,
+		// a read error is a result that failed with the IOException
+		// (the capacity keeps the reader from running far ahead)
+		final BlockingQueue<Future<EvaluationInfo>> results = 
+			new ArrayBlockingQueue<Future<EvaluationInfo>>(threads * 16);
+		final FutureTask<EvaluationInfo> end = 
+			new FutureTask<EvaluationInfo>(new Callable<EvaluationInfo>() {
+			public EvaluationInfo call() {
+				return null;
+			}
+		});
+		end.run();
+
+		// an error in the reader thread, rethrown by this thread
+		final AtomicReference<RuntimeException> readError = 
+			new AtomicReference<RuntimeException>();
+
+		Thread reader = new Thread(new Runnable() {
+			public void run() {
+				List<IOException> readErrors = new ArrayList<IOException>();
+				try {
+					Pair<Node<NodeInfo>, Node<NodeInfo>> trees;
+
+					while( (trees = nextTreePair(readErrors)) != null ) {
+
+						putReadErrors(readErrors, results);
+
+						final Node<NodeInfo> goldTree = trees.getFirst();
+						final Node<NodeInfo> testTree = trees.getSecond();
+
+						results.put(workers.submit(
+								new Callable<EvaluationInfo>() {
+							public EvaluationInfo call() {
+								EvaluationInfo result = 
+									evaluator.evaluate(goldTree, testTree);
+								for(Totals t : localTotals.get()) {
+									t.addResult(result);
+								}
+								return result;
+							}
+						}));
+					}
+				} catch(RuntimeException e) {
+					readError.set(e);
+				} catch(InterruptedException e) {
+					readError.set(new RuntimeException(e));
+				} finally {
+					try {
+						putReadErrors(readErrors, results);
+						results.put(end);
+					} catch (InterruptedException e) {
+						readError.compareAndSet(null, new RuntimeException(e));
+					}
+				}
+			}
+		}, "freval-reader");
+
+		// do not keep the program alive if we stop because of an error
+		reader.setDaemon(true);
+		reader.start();
+
+		try {
+			// print the results in tree order
+			for(Future<EvaluationInfo> future = results.take(); 
+			future != end; future = results.take()) {
+
+				try {
+					EvaluationInfo result = future.get();
+					writer.write(result);
+					printMessage(result);
+				} catch(ExecutionException e) {
+					if (e.getCause() instanceof IOException) {
+						// a read error
+						System.err.println(e.getCause().getMessage());
+						continue;
+					}
+					if (e.getCause() instanceof RuntimeException) {
+						throw (RuntimeException) e.getCause();
+					}
+					throw e;
+				}
+			}
+		} finally {
+			workers.shutdownNow();
 		}
 
-		System.err.println(String.format(
-				"\n---\nFinished with %d processing errors",processingErrorCount));
+		reader.join();
+		workers.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+
+		if (readError.get() != null) {
+			throw readError.get();
+		}
+
+		// combine the totals of all workers
+		for(List<Totals> list : workerTotals) {
+			for(int i = 0; i < totals.size(); i++) {
+				totals.get(i).merge(list.get(i));
+			}
+		}
+	}
+
+	/**
+	 * Hands read errors to the thread that prints the results, as
+	 * results that failed (@see {@link #evaluateParallel(int)})
+	 * @param readErrors the errors, removed from the list
+	 * @param results
+	 * @throws InterruptedException
+	 */
+	private static void putReadErrors(List<IOException> readErrors, 
+			BlockingQueue<Future<EvaluationInfo>> results) 
+	throws InterruptedException {
+
+		for(final IOException error : readErrors) {
+			FutureTask<EvaluationInfo> failed = 
+				new FutureTask<EvaluationInfo>(new Callable<EvaluationInfo>() {
+				public EvaluationInfo call() throws IOException {
+					throw error;
+				}
+			});
+			failed.run();
+			results.put(failed);
+		}
+		readErrors.clear();
+	}
+
+	/**
+	 * Prints why a sentence was not evaluated as usual (an error, or
+	 * an enumeration budget that was exceeded) to the error output
+	 * @param result
+	 */
+	private static void printMessage(EvaluationInfo result) {
+		if (result.getMessage() != null) {
+			System.err.println(result.getTreeID() + " : " + 
+					result.getMessage());
+		} else if (result instanceof BudgetEvaluationInfo) {
+			System.err.println(result.getTreeID() + " : " + 
+					"Enumeration budget exceeded, counted in closed form");
+		}
 	}
 
 	/**
@@ -148,6 +567,41 @@ public class Freval {
 
 	}
 
+	/**
+	 * Merges partial results (-Dpartial) and prints the summary, the same
+	 * as that of an evaluation of all their lines at once
+	 * @param filenames the partial results
+	 * @throws IOException if a file cannot be read
+	 * @throws ArgumentMissingException if there are no files
+	 */
+	private static void merge(String[] filenames) 
+	throws IOException, ArgumentMissingException {
+
+		if (filenames.length == 0) {
+			throw new ArgumentMissingException(
+					"Please specify the partial results to merge, " +
+					"e.g. merge part1 part2.");
+		}
+
+		PartialResult result = PartialResult.read(filenames[0]);
+		for (int i = 1; i < filenames.length; i++) {
+			result.merge(PartialResult.read(filenames[i]));
+		}
+
+		// print summary
+		for(Totals t : result.getTotals()) {
+			System.out.println(t);
+		}
+
+		System.err.println(String.format(
+				"\n---\nFinished with %d processing errors", 
+				result.getProcessingErrorCount()));
+	}
+
+	/**
+	 * Evaluates the test trees, or with the arguments 
+	 * <tt>merge part1 part2 ...</tt> merges partial results
+	 */
 	public static void main(String[] args) throws Exception {
 
 		// print name  and version to error console
@@ -155,8 +609,18 @@ public class Freval {
 		System.err.print(" ");
 		System.err.println(Settings.version);
 
+		// the results go to the standard output by default, buffer it 
+		// (it is flushed after the results, or when we stop)
+		System.setOut(new PrintStream(new BufferedOutputStream(
+				new FileOutputStream(FileDescriptor.out), OUTPUT_BUFFER_SIZE)));
+
 		try {
 
+			if (args.length > 0 && args[0].equals("merge")) {
+				merge(Arrays.copyOfRange(args, 1, args.length));
+				return;
+			}
+
 			checkSystemProperties();
 			Settings.get("debug"); // make sure settings are loaded
 
@@ -176,6 +640,8 @@ public class Freval {
 			System.err.print("Error: ");
 			System.err.println(e.getMessage());
 			System.exit(1);
+		} finally {
+			System.out.flush();
 		}
 	}
 }
@@ -4,6 +4,8 @@ import java.util.*;
 import java.util.Map.Entry;
 import java.io.*;
 
+import bastings.freval.util.SymbolTable;
+
 /**
  * Loads in properties from a file
  * No defaults are provided - a properties file must be used,
@@ -27,6 +29,11 @@ public class Settings implements Serializable {
 	public static ArrayList<String[]> equivalentLabels;
 	public static ArrayList<String[]> equivalentWords;	
 
+	/**
+	 * IDs for all labels and words, built from the lists above
+	 */
+	public static SymbolTable symbols;
+
 	public Settings() {}
 
 	/**
@@ -123,6 +130,10 @@ public class Settings implements Serializable {
 			equivalentWords.add(pair);
 		}		
 
+		// intern the labels and words from the lists above
+		symbols = new SymbolTable(deleteLabels, deleteLabelsForLength,
+				quoteLabels, equivalentLabels, equivalentWords);
+
 	}
 
 	/**
@@ -0,0 +1,59 @@
+package bastings.freval.evaluator;
+
+import bastings.freval.EvaluationConfig;
+import bastings.freval.util.*;
+
+/**
+ * Evaluates the brackets (fragments of size 1) of a gold and test tree,
+ * the PARSEVAL measures
+ *
+ * With fragment-size limit 1 a fragment is a single node, so the numbers
+ * of gold and test fragments are the numbers of nodes and the number of
+ * matched fragments is the number of gold nodes that match. This gives
+ * the same counts as {@link FragmentCounter} (and the enumeration) with
+ * limit 1, but the trees are not reduced or converted to
+ * {@link ArrayTree}s: once the words are checked, the brackets are taken
+ * straight from the parsed trees into int arrays ({@link Brackets}) and
+ * matched, crossed and counted on those.
+ */
+public class BracketCounter {
+
+	/**
+	 * Evaluate the brackets of both trees and add them to the evaluation
+	 * result as fragments of size 1, with the crossing brackets and the
+	 * correct tags
+	 * <b>ASSUME: the words of the trees were checked
+	 * (@see {@link Evaluator#prepare(Node, Node)})</b>
+	 * @param goldTree
+	 * @param testTree
+	 * @param config
+	 * @param evalInfo
+	 */
+	public static void evaluate(Node<NodeInfo> goldTree, 
+			Node<NodeInfo> testTree, EvaluationConfig config, 
+			DefaultEvaluationInfo evalInfo) {
+
+		Brackets gold = new Brackets(goldTree);
+		Brackets test = new Brackets(testTree);
+
+		int matched = TreeFunctions.countMatchingBrackets(gold, test, config);
+
+		evalInfo.setCrossing(TreeFunctions.getCrossing(gold, test));
+		evalInfo.setCorrectTag(TreeFunctions.getCorrectTagCount(
+				gold.getTags(), test.getTags(), config));
+
+		// (skip our own root element, bracket 0)
+		int goldCount = gold.size() - 1;
+		int testCount = test.size() - 1;
+
+		// like FragmentCounter, a tree without brackets adds nothing
+		if (goldCount > 0) {
+			evalInfo.addGold(1, goldCount);
+			evalInfo.addMatched(1, matched);
+		}
+		if (testCount > 0) {
+			evalInfo.addTest(1, testCount);
+		}
+	}
+
+}
@@ -0,0 +1,35 @@
+package bastings.freval.evaluator;
+
+/**
+ * Holds an evaluation result for a sentence that exceeded the enumeration
+ * budget (Freval.enumerationBudget and Freval.enumerationTimeBudget)
+ *
+ * The enumeration was stopped, and the fragments were counted in closed
+ * form instead (@see {@link FragmentCounter}), so the counts are the same
+ * as those of a complete enumeration. The result is kept apart so
+ * the totals can report how many sentences exceeded the budget.
+ */
+public class BudgetEvaluationInfo extends DefaultEvaluationInfo {
+
+	/**
+	 * Construct a result with the counts of another result
+	 * @param counted result with the fragment counts in closed form
+	 */
+	public BudgetEvaluationInfo(DefaultEvaluationInfo counted) {
+		super(counted.getTreeID(), counted.getSentenceLength());
+		addCounts(counted);
+		setCrossing(counted.getCrossing());
+		setCorrectTag(counted.getCorrectTag());
+		setGoldWordCount(counted.getGoldWordCount());
+		setTestWordCount(counted.getTestWordCount());
+	}
+
+	/**
+	 * @return the status printed for this result
+	 */
+	@Override
+	public String getStatus() {
+		return "Budget";
+	}
+
+}
@@ -1,8 +1,8 @@
 package bastings.freval.evaluator;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.math.BigInteger;
 
+import bastings.freval.util.FragmentCounts;
 import bastings.freval.util.Totals;
 
 /**
@@ -16,30 +16,11 @@ import bastings.freval.util.Totals;
 public class DefaultEvaluationInfo extends EvaluationInfo {
 
 	/**
-	 * We store the counts for each fragment size
-	 * At start, we reserve space for size up to 70
-	 * If larger fragments are found, the space will be extended
-	 * @see {@link Totals} 
+	 * This holds the number of gold, test and matched fragments for every
+	 * fragment size
+	 * @see {@link Totals}
 	 */
-	private static int INITIAL_COUNTS_CAPACITY = 70;
-
-	/**
-	 * This holds the number of matched fragments for every fragment size
-	 * <b>Note: fragment size 1 is at index 0!</b>
-	 */
-	public List<Integer> matchedFragmentCountByFragmentSize;
-
-	/**
-	 * This holds the number of gold fragments for every fragment size
-	 * <b>Note: fragment size 1 is at index 0!</b>
-	 */	
-	public List<Integer> goldFragmentCountByFragmentSize;
-
-	/**
-	 * This holds the number of test fragments for every fragment size
-	 * <b>Note: fragment size 1 is at index 0!</b>
-	 */	
-	public List<Integer> testFragmentCountByFragmentSize;
+	private final FragmentCounts counts = new FragmentCounts();
 
 	/**
 	 * Number of crossing brackets in test tree compared to gold tree
@@ -69,12 +50,6 @@ public class DefaultEvaluationInfo extends EvaluationInfo {
 	public DefaultEvaluationInfo(int treeID, int sentenceLength) {
 		this.setTreeID(treeID);
 		this.setSentenceLength(sentenceLength);
-		this.matchedFragmentCountByFragmentSize = new ArrayList<Integer>
-		(INITIAL_COUNTS_CAPACITY);
-		this.goldFragmentCountByFragmentSize = new ArrayList<Integer>
-		(INITIAL_COUNTS_CAPACITY);
-		this.testFragmentCountByFragmentSize = new ArrayList<Integer>
-		(INITIAL_COUNTS_CAPACITY);
 	}
 
 	/**
@@ -83,16 +58,7 @@ public class DefaultEvaluationInfo extends EvaluationInfo {
 	 * @param fragmentSize
 	 */
 	public void incrementGold(int fragmentSize) {
-
-		// check for resize
-		if (goldFragmentCountByFragmentSize.size() < fragmentSize) {
-			goldFragmentCountByFragmentSize.add(0);
-			testFragmentCountByFragmentSize.add(0);
-			matchedFragmentCountByFragmentSize.add(0);
-		}
-
-		goldFragmentCountByFragmentSize.set(fragmentSize - 1, 
-				goldFragmentCountByFragmentSize.get(fragmentSize - 1) + 1);
+		addGold(fragmentSize, 1);
 	}
 
 	/**
@@ -101,16 +67,7 @@ public class DefaultEvaluationInfo extends EvaluationInfo {
 	 * @param fragmentSize
 	 */
 	public void incrementTest(int fragmentSize) {
-
-		// check for resize
-		if (testFragmentCountByFragmentSize.size() < fragmentSize) {
-			goldFragmentCountByFragmentSize.add(0);
-			testFragmentCountByFragmentSize.add(0);
-			matchedFragmentCountByFragmentSize.add(0);
-		}
-
-		testFragmentCountByFragmentSize.set(fragmentSize - 1, 
-				testFragmentCountByFragmentSize.get(fragmentSize-1) + 1);
+		addTest(fragmentSize, 1);
 	}	
 
 	/**
@@ -119,17 +76,86 @@ public class DefaultEvaluationInfo extends EvaluationInfo {
 	 * @param fragmentSize
 	 */
 	public void incrementMatched(int fragmentSize) {
+		addMatched(fragmentSize, 1);
+	}	
 
-		// check for resize
-		if (matchedFragmentCountByFragmentSize.size() < fragmentSize) {
-			goldFragmentCountByFragmentSize.add(0);
-			testFragmentCountByFragmentSize.add(0);
-			matchedFragmentCountByFragmentSize.add(0);
-		}
+	/**
+	 * Add count to the number of gold fragments with size fragmentSize
+	 * @param fragmentSize
+	 * @param count
+	 */
+	public void addGold(int fragmentSize, long count) {
+		counts.add(FragmentCounts.GOLD, fragmentSize, count);
+	}
 
-		matchedFragmentCountByFragmentSize.set(fragmentSize - 1, 
-				matchedFragmentCountByFragmentSize.get(fragmentSize-1) + 1);
-	}	
+	/**
+	 * Add count to the number of gold fragments with size fragmentSize
+	 * @param fragmentSize
+	 * @param count
+	 */
+	public void addGold(int fragmentSize, BigInteger count) {
+		counts.add(FragmentCounts.GOLD, fragmentSize, count);
+	}
+
+	/**
+	 * Add count to the number of test fragments with size fragmentSize
+	 * @param fragmentSize
+	 * @param count
+	 */
+	public void addTest(int fragmentSize, long count) {
+		counts.add(FragmentCounts.TEST, fragmentSize, count);
+	}
+
+	/**
+	 * Add count to the number of test fragments with size fragmentSize
+	 * @param fragmentSize
+	 * @param count
+	 */
+	public void addTest(int fragmentSize, BigInteger count) {
+		counts.add(FragmentCounts.TEST, fragmentSize, count);
+	}
+
+	/**
+	 * Add count to the number of matched fragments with size fragmentSize
+	 * @param fragmentSize
+	 * @param count
+	 */
+	public void addMatched(int fragmentSize, long count) {
+		counts.add(FragmentCounts.MATCHED, fragmentSize, count);
+	}
+
+	/**
+	 * Add count to the number of matched fragments with size fragmentSize
+	 * @param fragmentSize
+	 * @param count
+	 */
+	public void addMatched(int fragmentSize, BigInteger count) {
+		counts.add(FragmentCounts.MATCHED, fragmentSize, count);
+	}
+
+	/**
+	 * Add all fragment counts of another result to this one
+	 * @param other
+	 */
+	public void addCounts(DefaultEvaluationInfo other) {
+		counts.addAll(other.counts);
+	}
+
+	/**
+	 * Tells if another result has exactly the same fragment counts
+	 * @param other
+	 * @return true if all counts are equal for every fragment size
+	 */
+	public boolean hasSameCounts(DefaultEvaluationInfo other) {
+		return counts.hasSameCounts(other.counts);
+	}
+
+	/**
+	 * @return the fragment counts
+	 */
+	public FragmentCounts getCounts() {
+		return counts;
+	}
 
 	/**
 	 * @return the crossing
@@ -187,6 +213,18 @@ public class DefaultEvaluationInfo extends EvaluationInfo {
 		this.testWordCount = testWordCount;
 	}
 
+	/**
+	 * @return the status printed for this result
+	 */
+	public String getStatus() {
+		return "OK";
+	}
+
+	@Override
+	public DefaultEvaluationInfo getCounted() {
+		return this;
+	}
+
 	/**
 	 * Prints this info
 	 */
@@ -194,14 +232,14 @@ public class DefaultEvaluationInfo extends EvaluationInfo {
 
 		StringBuffer sb = new StringBuffer();
 
-		for(int i = 0; i < goldFragmentCountByFragmentSize.size(); i++) {
+		for(int i = 0; i < counts.size(); i++) {
 
-			int match = matchedFragmentCountByFragmentSize.get(i);
-			int gold = goldFragmentCountByFragmentSize.get(i);
-			int test = testFragmentCountByFragmentSize.get(i);
+			double match = counts.getDouble(FragmentCounts.MATCHED, i + 1);
+			double gold = counts.getDouble(FragmentCounts.GOLD, i + 1);
+			double test = counts.getDouble(FragmentCounts.TEST, i + 1);
 
-			double recall = (gold > 0 ? 100 * match / (double) gold : 0.0);
-			double precision = (test > 0 ? 100 * match / (double) test : 0.0);
+			double recall = (gold > 0 ? 100 * match / gold : 0.0);
+			double precision = (test > 0 ? 100 * match / test : 0.0);
 			double taggingAccuracy = (getGoldWordCount() == 0 ? 
 					0.0 : 
 						100.0 * getCorrectTag() / (double) getGoldWordCount());
@@ -210,9 +248,12 @@ public class DefaultEvaluationInfo extends EvaluationInfo {
 					"%6.2f    %6.2f    %8d    %8d    %8d    " +
 					"%4d    %4d    %4d    %6.2f    %6s\n", 
 					this.getTreeID(), this.getSentenceLength(), i+1,
-					recall, precision, match, gold, test,
+					recall, precision,
+					counts.getNumber(FragmentCounts.MATCHED, i + 1),
+					counts.getNumber(FragmentCounts.GOLD, i + 1),
+					counts.getNumber(FragmentCounts.TEST, i + 1),
 					getCrossing(), getGoldWordCount(), getCorrectTag(), 
-					taggingAccuracy, "OK"));
+					taggingAccuracy, getStatus()));
 		}
 
 		return sb.toString();
@@ -0,0 +1,77 @@
+package bastings.freval.evaluator;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The budget for enumerating the fragments of one sentence: a maximum
+ * number of fragments and/or a maximum (wall-clock) time
+ *
+ * The enumerators spend the fragments they generate in batches of
+ * {@link #CHECK_INTERVAL}, and stop when the budget is exceeded. The
+ * batches of all threads of a fork/join enumeration are added up, and
+ * every fragment is spent, so the fragment budget is exceeded iff the
+ * sentence has more fragments than the budget (whatever the number of
+ * threads). The time is only checked once per batch.
+ */
+class EnumerationBudget {
+
+	/**
+	 * Number of fragments an enumerator generates between two checks
+	 */
+	static final int CHECK_INTERVAL = 1024;
+
+	/**
+	 * Maximum number of fragments, 0 for no limit
+	 */
+	private final long maxFragments;
+
+	/**
+	 * Time (@see {@link System#nanoTime()}) at which the budget runs out,
+	 * only if timed
+	 */
+	private final boolean timed;
+	private final long deadline;
+
+	private final AtomicLong fragments = new AtomicLong();
+	private volatile boolean exceeded = false;
+
+	/**
+	 * Starts a budget (the time starts now)
+	 * @param maxFragments maximum number of fragments, 0 for no limit
+	 * @param millis maximum time in milliseconds, 0 for no limit
+	 */
+	EnumerationBudget(long maxFragments, long millis) {
+		this.maxFragments = maxFragments;
+		this.timed = millis > 0;
+		this.deadline = System.nanoTime() + millis * 1000000L;
+	}
+
+	/**
+	 * Spends generated fragments
+	 * @param count number of fragments generated since the last call
+	 * @return false if the budget is exceeded, the enumeration should stop
+	 */
+	boolean spend(int count) {
+
+		if (exceeded) {
+			return false;
+		}
+
+		long total = fragments.addAndGet(count);
+		if ((maxFragments > 0 && total > maxFragments) ||
+				(timed && System.nanoTime() - deadline > 0)) {
+			exceeded = true;
+			return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * @return true if the budget was exceeded
+	 */
+	boolean isExceeded() {
+		return exceeded;
+	}
+
+}
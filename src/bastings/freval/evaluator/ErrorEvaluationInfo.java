@@ -51,6 +51,13 @@ public class ErrorEvaluationInfo extends EvaluationInfo {
 		this.message = message;
 	}
 	
+	/**
+	 * @return the status printed for this result
+	 */
+	public String getStatus() {
+		return "Error";
+	}
+
 	/**
 	 * Prints this info
 	 */
@@ -60,7 +67,7 @@ public class ErrorEvaluationInfo extends EvaluationInfo {
 					"%6.2f    %6.2f    %8d    %8d    %8d    " +
 					"%4d    %4d    %4d    %6.2f    %6s\n", 
 					this.getTreeID(), this.getSentenceLength(), 1,
-					0.0, 0.0, 0, 0, 0, 0, 0, 0, 0.0, "Error");
+					0.0, 0.0, 0, 0, 0, 0, 0, 0, 0.0, getStatus());
 	}	
 		
 	
@@ -1,11 +1,12 @@
-package joostbastings.freval.evaluator;
+package bastings.freval.evaluator;
 
-import joostbastings.freval.util.TreeFunctions;
+import bastings.freval.util.TreeFunctions;
 
 /**
  * Abstract class for the result of an evaluation of a test tree
  * with respect to a gold tree
- * @see {@link DefaultEvaluationInfo}, {@link ErrorEvaluationInfo}
+ * @see {@link DefaultEvaluationInfo}, {@link ErrorEvaluationInfo},
+ * {@link SkipEvaluationInfo}
  * 
  */
 public abstract class EvaluationInfo {
@@ -51,4 +52,25 @@ public abstract class EvaluationInfo {
 		this.sentenceLength = sentenceLength;
 	}
 
+	/**
+	 * @return the status printed for this result
+	 * ("OK", "Budget", "Skip" or "Error")
+	 */
+	public abstract String getStatus();
+
+	/**
+	 * @return the error message, or null if this is not an error
+	 */
+	public String getMessage() {
+		return null;
+	}
+
+	/**
+	 * @return this result if it has fragment counts (OK or Budget),
+	 * or null
+	 */
+	public DefaultEvaluationInfo getCounted() {
+		return null;
+	}
+
 }
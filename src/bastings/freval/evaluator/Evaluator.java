@@ -1,130 +1,170 @@
 package bastings.freval.evaluator;
 
-import java.util.ArrayList;
-import java.util.Enumeration;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
+import bastings.freval.EvaluationConfig;
 import bastings.freval.Settings;
 import bastings.freval.util.*;
 
 /**
  * Calculates the Freval-score given 2 trees
+ *
+ * An evaluator does not change while evaluating, so a single instance
+ * can evaluate sentences on several threads at the same time
  */
 public class Evaluator {
 
-	public static EvaluationInfo evaluate(
-			Node<NodeInfo> goldTree, Node<NodeInfo> testTree) {
+	/**
+	 * The settings, compiled once
+	 */
+	private final EvaluationConfig config;
 
-		// calc corrected sentence length
-		// i.e. the length without terminals that have a parent
-		// that has a delete-label for length
-		final int sentenceLength = 
-			TreeFunctions.getOfficialSentenceLength(goldTree);
+	/**
+	 * Pool for fork/join fragment enumeration, @see {@link FragmentTask}
+	 * or null if the enumeration runs on a single thread
+	 */
+	private final ForkJoinPool enumerationPool;
 
-		// get the tree ID ("sentence number") from the gold root
-		int treeID = goldTree.getUserObject().getTreeID();
+	/**
+	 * Fragment counts of subtrees seen before, for all sentences
+	 * (null if there is no cache)
+	 */
+	private final FragmentCountCache countCache;
 
-		// check if the testTree is not null
-		if (testTree == null) {
-			return new SkipEvaluationInfo(treeID, sentenceLength);
-		}
+	/**
+	 * Gold counts of the sentences, from earlier runs
+	 * (null if there is no cache)
+	 */
+	private final GoldCountCache goldCountCache;
 
-		// identify delete nodes, identify quote nodes and quote terminals
-		TreeFunctions.identifyDeleteAndQuoteNodes(goldTree);
-		TreeFunctions.identifyDeleteAndQuoteNodes(testTree);
+	/**
+	 * Creates an evaluator with the specified settings
+	 * @param config
+	 */
+	public Evaluator(EvaluationConfig config) {
+		this(config, null);
+	}
 
-		// get real word counts (e.g. we do NOT count deleted words)
-		int goldWordCount = TreeFunctions.getRealLeafCount(goldTree);
-		int testWordCount = TreeFunctions.getRealLeafCount(testTree);
+	/**
+	 * Creates an evaluator with the specified settings, that enumerates
+	 * only the matched gold fragments of sentences of which the gold
+	 * counts are in a cache (and adds the counts of the others)
+	 * @param config
+	 * @param goldCountCache cache for the same limit, or null for none
+	 * @throws IllegalArgumentException if the cache is for another limit
+	 */
+	public Evaluator(EvaluationConfig config, GoldCountCache goldCountCache) {
 
-		// check for sentence length unmatch
-		// we count the number of terminals that were not deleted
-		if (goldWordCount != testWordCount) {
+		if (goldCountCache != null && 
+				goldCountCache.getLimit() != config.getFragmentSizeLimit()) {
+			throw new IllegalArgumentException(String.format(
+					"Gold count cache for another limit (%d|%d)", 
+					goldCountCache.getLimit(), config.getFragmentSizeLimit()));
+		}
 
-			// reintroduce deleted quotes to try to make lengths equal
-			TreeFunctions.fixQuotes(goldTree, testTree);
+		this.config = config;
+		this.goldCountCache = goldCountCache;
 
-			// if still length mismatch after quote fixing, return error
-			goldWordCount = TreeFunctions.getRealLeafCount(goldTree);
-			testWordCount = TreeFunctions.getRealLeafCount(testTree);			
-			if (goldWordCount != testWordCount) {
-				return new ErrorEvaluationInfo(treeID, sentenceLength, 
-						String.format("Length unmatch (%d|%d)", 
-								TreeFunctions.getRealLeafCount(goldTree), 
-								TreeFunctions.getRealLeafCount(testTree)));
-			}
+		// @see Freval.enumerationThreads in the properties
+		int threads = config.getEnumerationThreads();
+		if (threads <= 0) {
+			threads = Runtime.getRuntime().availableProcessors();
 		}
+		enumerationPool = (threads > 1 ? new ForkJoinPool(threads) : null);
 
-		// check for words unmatch
-		String result = TreeFunctions.firstLeafMismatch(goldTree, testTree);
-		if (result != null) {			
-			return new ErrorEvaluationInfo(treeID, sentenceLength, 
-					String.format("Words unmatch %s", result));			
-		}
+		// @see Freval.countCacheSize in the properties
+		countCache = (config.getCountCacheSize() > 0 ? 
+				new FragmentCountCache(config.getCountCacheSize(), 
+						config.getFragmentSizeLimit()) : null);
+	}
 
-		// remove from the tree all nodes marked as isDeleted
-		// children stay and are moved up!	
-		goldTree = TreeFunctions.getWithoutDeleted(goldTree);
-		testTree = TreeFunctions.getWithoutDeleted(testTree);	
+	/**
+	 * @return the cache of subtree fragment counts, null if there is none
+	 */
+	public FragmentCountCache getCountCache() {
+		return countCache;
+	}
 
-		// set start and end for every node
-		TreeFunctions.setStartEnd(goldTree);
-		TreeFunctions.setStartEnd(testTree);
-		
-		// identify nodes with empty spans (start wordid == end wordid)
-		TreeFunctions.identifyEmptySpanNodes(goldTree);
-		TreeFunctions.identifyEmptySpanNodes(testTree);
-		
-		// possibly delete the empty span nodes identified above
-		goldTree = TreeFunctions.getWithoutDeleted(goldTree);
-		testTree = TreeFunctions.getWithoutDeleted(testTree);		
-		
-		// calculate correct tags (before we remove the leafs!)
-		int correctTag = TreeFunctions.getCorrectTagCount(goldTree, testTree);
+	/**
+	 * @return the cache of gold counts, or null if there is none
+	 */
+	public GoldCountCache getGoldCountCache() {
+		return goldCountCache;
+	}
 
-		// remove leafs (terminals), they are not part of evaluation
-		// remove pre-terminals (POS), they are also not part of evaluation
-		TreeFunctions.removeLeafs(goldTree);
-		TreeFunctions.removeLeafs(goldTree);
-		TreeFunctions.removeLeafs(testTree);
-		TreeFunctions.removeLeafs(testTree);
+	public EvaluationInfo evaluate(
+			Node<NodeInfo> goldTree, Node<NodeInfo> testTree) {
 
-		// give every node an ID, useful to print Fragments (which is next)
-		TreeFunctions.resetNodeIDs(goldTree);
-		TreeFunctions.resetNodeIDs(testTree);
+		// PARSEVAL, a fragment is a single node: the brackets are taken
+		// straight from the trees, without reducing them
+		if (config.isCountingBrackets()) {
+			TreePair pair = checkWords(goldTree, testTree);
+			if (!pair.isEvaluable()) {
+				return pair.getFailure();
+			}
+			DefaultEvaluationInfo evalInfo = new DefaultEvaluationInfo(
+					pair.getTreeID(), pair.getSentenceLength());
+			evalInfo.setGoldWordCount(pair.getGoldWordCount());
+			BracketCounter.evaluate(goldTree, testTree, config, evalInfo);
+			return evalInfo;
+		}
 
-		// set the "matches" variable for each node
-		// so we know which ones match
-		TreeFunctions.findMatchingNodes(goldTree, testTree);
+		TreePair pair = prepare(goldTree, testTree);
+		if (!pair.isEvaluable()) {
+			return pair.getFailure();
+		}
 
-		// print the tree -  debug output level 2
-		if (Settings.debug > 1) {
-			System.err.println("Gold tree (as evaluated):");
-			TreeFunctions.printIndentedTree(System.err, goldTree);
-			System.err.println("Test tree (as evaluated):");
-			TreeFunctions.printIndentedTree(System.err, testTree);
-		}		
-		
-		// create initial fragments
-		List<Fragment> goldFragments = fragmentListFromTree(goldTree);
-		List<Fragment> testFragments = fragmentListFromTree(testTree);
+		ArrayTree gold = pair.getGold();
+		ArrayTree test = pair.getTest();
+		int treeID = pair.getTreeID();
+		int sentenceLength = pair.getSentenceLength();
 
-		// run fragment generator, and keep track of counts
-		
 		DefaultEvaluationInfo evalInfo = new DefaultEvaluationInfo(treeID, 
 				sentenceLength);
 
 		// get number of crossing brackets in TEST tree
-		int crossing = TreeFunctions.getCrossing(goldTree, testTree);
+		int crossing = TreeFunctions.getCrossing(gold, test);
 
 		evalInfo.setCrossing(crossing);
-		evalInfo.setCorrectTag(correctTag);
-		evalInfo.setGoldWordCount(goldWordCount);
-
-		boolean isGold = true;
-
-		calculate(goldFragments, evalInfo, isGold);
-		calculate(testFragments, evalInfo, !isGold);
+		evalInfo.setCorrectTag(pair.getCorrectTag());
+		evalInfo.setGoldWordCount(pair.getGoldWordCount());
+
+		// count the fragments, either in closed form or by
+		// enumerating them (debug level 4 prints every fragment,
+		// so that needs the enumeration)
+		EvaluationConfig.FragmentCounting counting = 
+			config.getFragmentCounting();
+		int limit = config.getFragmentSizeLimit();
+
+		if (Settings.debug > 3 || 
+				counting == EvaluationConfig.FragmentCounting.ENUMERATION) {
+			if (!enumerate(gold, test, evalInfo)) {
+				// over budget, count in closed form instead
+				FragmentCounter.count(gold, evalInfo, true, limit, countCache);
+				FragmentCounter.count(test, evalInfo, false, limit, countCache);
+				return new BudgetEvaluationInfo(evalInfo);
+			}
+		} else {
+			FragmentCounter.count(gold, evalInfo, true, limit, countCache);
+			FragmentCounter.count(test, evalInfo, false, limit, countCache);
+
+			// compare with the reference enumeration
+			if (counting == EvaluationConfig.FragmentCounting.CROSSCHECK) {
+				DefaultEvaluationInfo reference = new DefaultEvaluationInfo(
+						treeID, sentenceLength);
+				if (!enumerate(gold, test, reference)) {
+					// over budget, nothing to compare with
+					return new BudgetEvaluationInfo(evalInfo);
+				}
+				if (!reference.hasSameCounts(evalInfo)) {
+					System.err.println(String.format(
+							"%d : [crosscheck] fragment counts differ " +
+							"(enumeration|polynomial)\n%s%s",
+							treeID, reference, evalInfo));
+				}
+			}
+		}
 
 		// return the evaluation result
 		return evalInfo;
@@ -132,245 +172,233 @@ public class Evaluator {
 	}
 
 	/**
-	 * Calculate the evaluation result
-	 * @param list
-	 * @param evalInfo
+	 * Normalizes a gold and test tree for evaluation: deletes nodes,
+	 * fixes quotes, checks the words, removes the leafs and pre-terminals
+	 * and finds the matching nodes
+	 * <b>Note: the trees are changed</b>
+	 * @param goldTree
+	 * @param testTree test tree, or null if the test sentence is empty
+	 * @return the normalized pair, or the skip or error result
 	 */
-	private static void calculate(List<Fragment> fragments, 
-			DefaultEvaluationInfo evalInfo, boolean isGold) {
+	public TreePair prepare(
+			Node<NodeInfo> goldTree, Node<NodeInfo> testTree) {
 
-		for(Fragment f : fragments) {
+		TreePair words = checkWords(goldTree, testTree);
+		if (!words.isEvaluable()) {
+			return words;
+		}
 
-			// add the fragment to the test/gold fragment count
-			// and add matching fragments to the match count for this sentence			
-			int size = f.size();
+		// in one pass over each tree: remove the nodes marked as isDeleted
+		// (children stay and are moved up), set start and end for every
+		// node, remove the nodes with empty spans (start wordid == end
+		// wordid), and remove the leafs (terminals) and pre-terminals 
+		// (POS), they are not part of evaluation
+		int[] goldTags = TreeFunctions.reduceForEvaluation(goldTree);
+		int[] testTags = TreeFunctions.reduceForEvaluation(testTree);
 
-			if (isGold) { // gold fragment
-				evalInfo.incrementGold(size);
-				if( f.matches()) {
-					evalInfo.incrementMatched(size);
-				}
-			} else { // test fragment
-				evalInfo.incrementTest(size);
-			}
-			
-			// if this is the largest fragment we want to generate,
-			// do not extend it any further
-			if (Settings.getInteger("fragmentSizeLimit") != 0 &&
-					Settings.getInteger("fragmentSizeLimit") == size) {
-				continue;
-			}
+		// calculate correct tags (from the pre-terminals of the words)
+		int correctTag = TreeFunctions.getCorrectTagCount(goldTags, testTags,
+				config);
 
-			// generate new fragments (with size N+1)
-			// from current fragment (with size N)
-			List<Fragment> newFragments = extend(f);
+		// build the array trees we evaluate on, this also gives 
+		// every node an ID, useful to print Fragments
+		ArrayTree gold = new ArrayTree(goldTree);
+		ArrayTree test = new ArrayTree(testTree);
 
-			// recursively calculate for those new fragments
-			// before we continue with the current list of fragments
-			calculate(newFragments, evalInfo, isGold);
+		// set the "matches" variable for each node
+		// so we know which ones match
+		TreeFunctions.findMatchingNodes(gold, test, config);
 
-		}
+		// print the tree -  debug output level 2
+		if (Settings.debug > 1) {
+			System.err.println("Gold tree (as evaluated):");
+			TreeFunctions.printIndentedTree(System.err, goldTree);
+			System.err.println("Test tree (as evaluated):");
+			TreeFunctions.printIndentedTree(System.err, testTree);
+		}		
 		
+		return new TreePair(words.getTreeID(), words.getSentenceLength(), 
+				gold, test, words.getGoldWordCount(), correctTag);
 	}
 
 	/**
-	 * Extend a fragment to create one or more fragments 1 node larger
-	 * We either extend by 
-	 * 
-	 * 	(1) adding a child of the deepest node in the
-	 *      fragment, or
-	 *  
-	 * 	(2) by adding a node on the same level as the deepest, right-most, node,
-	 *      where the node added must be to the right of that right-most deepest node 
-	 *      in the tree
-	 *      
-	 *  
-	 *  <b>ASSUME: pre-order sorting of the Fragment.
-	 *  The result will then keep that sorting.</b>
-	 * 
-	 * @param f
-	 * @return
+	 * Checks the words of a gold and test tree: deletes nodes, fixes 
+	 * quotes and compares the words, the first part of 
+	 * {@link #prepare(Node, Node)}
+	 * <b>Note: the trees are changed</b>
+	 * @param goldTree
+	 * @param testTree test tree, or null if the test sentence is empty
+	 * @return the checked pair (without trees), or the skip or error result
 	 */
-	private static List<Fragment> extend(Fragment f) {
+	private TreePair checkWords(
+			Node<NodeInfo> goldTree, Node<NodeInfo> testTree) {
 
-		List<Fragment> newFragments = new ArrayList<Fragment>();
+		// calc corrected sentence length
+		// i.e. the length without terminals that have a parent
+		// that has a delete-label for length
+		// (known already for a gold tree from a treebank cache)
+		boolean goldIdentified = goldTree.getUserObject().isIdentified();
+		final int sentenceLength = (goldIdentified ?
+				goldTree.getUserObject().getSentenceLength() :
+				TreeFunctions.getOfficialSentenceLength(goldTree, config));
 
-		/*
-		 * extension type 1
-		 * 
-		 * for each node having the max level in the fragment, 
-		 * add a child
-		 */
+		// get the tree ID ("sentence number") from the gold root
+		int treeID = goldTree.getUserObject().getTreeID();
 
-		// get the max level and the right-most max level node (for type 2 ext.)
-		int maxLevel = -1;
-		Node<NodeInfo> rmmlNode = null; // right-most max-level node
-		int rmmlNodeIndex = -1;
-		
-		// FIXME changed to: level >= maxLevel, was: >
-		for(int i = 0; i < f.size(); i++) {
-			
-			int level = f.get(i).getLevel();
-			if (level >= maxLevel) {
-				maxLevel = level;
-				rmmlNode = f.get(i);
-				rmmlNodeIndex = i;
-			}
+		// check if the testTree is not null
+		if (testTree == null) {
+			return new TreePair(
+					new SkipEvaluationInfo(treeID, sentenceLength));
 		}
 
-		// for each max level node
-		for(int i = 0; i < f.size(); i++) {
-
-			Node<NodeInfo> node = f.get(i);
-
-			if (node.getLevel() == maxLevel) {
-
-				// extend with child(s)
-				Enumeration<Node<NodeInfo>> children = node.children();
-
-				while(children.hasMoreElements()) {
-					
-					Node<NodeInfo> child = children.nextElement();
-					Fragment newF = f.clone();
-					
-					// if the added node does not match, the whole fragment 
-					// also does not
-					if (f.matches()) {
-						if (!child.getUserObject().matches()) {
-							newF.setMatches(false);
-						}
-					}
-					
-					newF.add(i + 1, child); // add AFTER parent in fragment
-					newFragments.add(newF);
-
-					// level 4 debug - fragment output
-					if(Settings.debug > 3) {
-						System.out.println(String.format(
-								"fragment treeID=%d type=1 size=%d maxlevelnode=%d(%s) " +
-								"added=%d(%s) list=%s",
-								newF.getFirst().getRoot().getUserObject().getTreeID(),
-								newF.size(), 
-								node.getUserObject().getNodeID(),
-								node.getUserObject().getName(), 
-								child.getUserObject().getNodeID(),
-								child.getUserObject().getName(), 
-								newF)
-						);						
-					}
-				}
+		// identify delete nodes, identify quote nodes and quote terminals,
+		// and get the real words (e.g. we do NOT count deleted words)
+		List<Node<NodeInfo>> goldWords = (goldIdentified ?
+				TreeFunctions.getRealLeafs(goldTree) :
+				TreeFunctions.identifyDeleteAndQuoteNodes(goldTree, config));
+		List<Node<NodeInfo>> testWords = 
+			TreeFunctions.identifyDeleteAndQuoteNodes(testTree, config);
+
+		// check for sentence length unmatch
+		// we count the number of terminals that were not deleted
+		if (goldWords.size() != testWords.size()) {
+
+			// reintroduce deleted quotes to try to make lengths equal
+			TreeFunctions.fixQuotes(goldTree, testTree);
+
+			// if still length mismatch after quote fixing, return error
+			goldWords = TreeFunctions.getRealLeafs(goldTree);
+			testWords = TreeFunctions.getRealLeafs(testTree);
+			if (goldWords.size() != testWords.size()) {
+				return new TreePair(new ErrorEvaluationInfo(treeID, 
+						sentenceLength, String.format("Length unmatch (%d|%d)", 
+								goldWords.size(), testWords.size())));
 			}
 		}
+		int goldWordCount = goldWords.size();
 
-		/* 
-		 * extension type 2
-		 * 
-		 * for the RIGHT MOST max-level node, add nodes *to the right of it*
-		 * that have the *same* level (and are connected to the fragment)
-		 * 
-		 * Note that the added node can be a sibling of the max-level node
-		 * on the left, but also a node in a different branch but on the
-		 * same level
-		 */
-		
-		// this extension does not work if the maxlevel node is 'root' 
-		// of the fragment
-		// because it has no parent (so return the result of type 1)
-		if(f.size() == 1) {
-			return newFragments;
+		// check for words unmatch
+		String result = TreeFunctions.firstLeafMismatch(goldWords, testWords,
+				config);
+		if (result != null) {			
+			return new TreePair(new ErrorEvaluationInfo(treeID, 
+					sentenceLength, String.format("Words unmatch %s", result)));
 		}
-		
-		// for each node
-		for(int i = 0; i < f.size(); i++) {
-			
-			Node<NodeInfo> node = f.get(i);
-			
-			// which is on max level -1 (so parents of possible extensions)
-			if(node.getLevel() == maxLevel - 1) {
-			
-				// iterate over the children (potential extensions to the frag!)
-				Enumeration<Node<NodeInfo>> en = node.children();
-				
-				while(en.hasMoreElements()) {
-					
-					Node<NodeInfo> child = en.nextElement();
-					
-					// only add in this situation:
-					// the child we add is on the same level as the
-					// right-most max-level node,
-					// and it is to the right of that node (higher child NodeID)
-					if (child.getUserObject().getNodeID() > 
-					rmmlNode.getUserObject().getNodeID()) {
-
-						// copy the fragment, and add the new node
-						Fragment newF = f.clone();
-						
-						// if the added node does not match, the whole fragment 
-						// also does not
-						if (f.matches()) {
-							if (!child.getUserObject().matches()) {
-								newF.setMatches(false);
-							}
-						}
-							
-						// add either 
-						//   (1) if sibling of rmmlNode: AFTER rmmlNode
-						//   or else (2) AFTER parent (=i) in fragment
-						newF.add(Math.max(i, rmmlNodeIndex) + 1, child);
-						newFragments.add(newF);
-
-						// level 4 debug - fragment output
-						if(Settings.debug > 3) {
-							System.out.println(String.format(
-									"fragment treeID=%d type=2 size=%d " +
-									"rmmlnode=%d(%s) added=%d(%s) list=%s",
-									newF.getFirst().getRoot().getUserObject().getTreeID(),
-									newF.size(), 
-									rmmlNode.getUserObject().getNodeID(), 
-									rmmlNode.getUserObject().getName(), 
-									child.getUserObject().getNodeID(), 
-									child.getUserObject().getName(), 
-									newF)
-							);						
-						}
-					}					
-					
-				}
+
+		return new TreePair(treeID, sentenceLength, null, null, 
+				goldWordCount, 0);
+	}
+
+	/**
+	 * Count the fragments of both trees by enumerating them
+	 * (the reference method, @see {@link FragmentCounter})
+	 * If the sentence has an enumeration budget, the enumeration stops
+	 * when it is exceeded, and nothing is counted
+	 * With a cache of gold counts (and no budget, the gold fragments
+	 * count towards it) only the matched gold fragments are enumerated
+	 * for a sentence in the cache, the gold counts of the other sentences
+	 * are added to the cache
+	 * @param goldTree
+	 * @param testTree
+	 * @param evalInfo
+	 * @return false if the enumeration budget was exceeded
+	 */
+	private boolean enumerate(ArrayTree goldTree, ArrayTree testTree, 
+			DefaultEvaluationInfo evalInfo) {
+
+		// run fragment generator, and keep track of counts
+		boolean isGold = true;
+		int limit = config.getFragmentSizeLimit();
+
+		// one budget for both trees
+		EnumerationBudget budget = null;
+		if (config.hasEnumerationBudget()) {
+			budget = new EnumerationBudget(config.getEnumerationBudget(), 
+					config.getEnumerationTimeBudget());
+		}
+
+		DefaultEvaluationInfo counts = new DefaultEvaluationInfo(0, 0);
+
+		// the gold counts from the cache (not at debug level 4, every
+		// gold fragment is printed)
+		boolean useGoldCounts = goldCountCache != null && budget == null && 
+			Settings.debug <= 3 && config.getFragmentCounting() == 
+				EvaluationConfig.FragmentCounting.ENUMERATION;
+		boolean matchedOnly = useGoldCounts && 
+			goldCountCache.addGold(goldTree, counts);
+
+		// split the work over several threads
+		// (not at debug level 4, fragments would be printed out of order)
+		if (enumerationPool != null && Settings.debug <= 3) {
+			counts.addCounts(enumerationPool.invoke(matchedOnly ?
+					new FragmentTask(goldTree, limit, budget) :
+					new FragmentTask(goldTree, isGold, limit, budget)));
+			if (budget == null || !budget.isExceeded()) {
+				counts.addCounts(enumerationPool.invoke(new FragmentTask(
+						testTree, !isGold, limit, budget)));
 			}
+		} else if (calculate(new FragmentGenerator(goldTree, limit, 
+				matchedOnly), counts, isGold, budget)) {
+			calculate(new FragmentGenerator(testTree, limit), counts, 
+					!isGold, budget);
 		}
-		
-		return newFragments;
 
+		if (budget != null && budget.isExceeded()) {
+			return false;
+		}
+
+		if (useGoldCounts && !matchedOnly) {
+			goldCountCache.put(goldTree, counts.getCounts());
+		}
+
+		evalInfo.addCounts(counts);
+		return true;
 	}
 
 	/**
-	 * Initialize a list of fragments from a tree
-	 * @param tree
-	 * @return
+	 * Calculate the evaluation result, counting every generated fragment
+	 * @param generator
+	 * @param evalInfo
+	 * @param isGold
+	 * @param budget the enumeration budget, or null for none
+	 * @return false if the budget was exceeded (the counts are incomplete)
 	 */
-	private static List<Fragment> fragmentListFromTree(Node<NodeInfo> tree) {
+	static boolean calculate(FragmentGenerator generator, 
+			DefaultEvaluationInfo evalInfo, boolean isGold, 
+			EnumerationBudget budget) {
 
-		List<Fragment> list = new ArrayList<Fragment>();
+		// fragments not spent from the budget yet
+		int unspent = 0;
 
-		Enumeration<Node<NodeInfo>> en = tree.preorderEnumeration();
+		while (generator.next()) {
 
-		while(en.hasMoreElements()) {
+			Fragment f = generator.getFragment();
 
-			Node<NodeInfo> node = en.nextElement();
+			// add the fragment to the test/gold fragment count
+			// and add matching fragments to the match count for this sentence			
+			int size = f.size();
 
-			// skip our own root element
-			if (node.isRoot()) {
-				continue;
+			if (isGold) { // gold fragment
+				if (!generator.isMatchedOnly()) {
+					evalInfo.incrementGold(size);
+				}
+				if( f.matches()) {
+					evalInfo.incrementMatched(size);
+				}
+			} else { // test fragment
+				evalInfo.incrementTest(size);
 			}
 
-			Fragment f = new Fragment();
-			f.setMatches(node.getUserObject().matches());
-			f.add(node);
-			list.add(f);
+			if (budget != null && 
+					++unspent == EnumerationBudget.CHECK_INTERVAL) {
+				if (!budget.spend(unspent)) {
+					return false;
+				}
+				unspent = 0;
+			}
 		}
 
-		return list;
-
+		return budget == null || budget.spend(unspent);
 	}
 
 }
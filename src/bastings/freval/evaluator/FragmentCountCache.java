@@ -0,0 +1,175 @@
+package bastings.freval.evaluator;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers the fragment counts of subtrees across sentences
+ * (Freval.countCacheSize, @see {@link FragmentCounter})
+ *
+ * Treebanks have the same small subtrees over and over again, and the
+ * fragment counts of a subtree only depend on its shape (and for gold
+ * trees on which nodes match), not on its labels. A subtree is encoded
+ * as the number of children and the match flag of its nodes in pre-order,
+ * and looked up by a (Merkle-style) hash of that code, built from the
+ * hashes of its children. The code is stored with the counts, so a hash
+ * collision is never mistaken for a hit.
+ *
+ * The cache keeps the most recently used subtrees (LRU), at most the
+ * specified number, and only subtrees of {@link #MIN_SIZE} to
+ * {@link #MAX_SIZE} nodes, so the memory use is bounded. The counts are
+ * truncated at the fragment-size limit, so a cache is only used with the
+ * limit it was made for. A cache can be shared by several threads.
+ */
+public class FragmentCountCache {
+
+	/**
+	 * Smaller subtrees are counted faster than they are looked up
+	 */
+	static final int MIN_SIZE = 3;
+
+	/**
+	 * Larger subtrees are not cached, they rarely come back
+	 */
+	static final int MAX_SIZE = 64;
+
+	/**
+	 * The counts of a subtree
+	 */
+	static class Entry {
+
+		/**
+		 * The code of the subtree
+		 */
+		final int[] code;
+
+		/**
+		 * Polynomials of the subtree root: fragments with the root
+		 * as top node, and matched ones (null if the root does not match)
+		 */
+		final long[] all;
+		final long[] matched;
+
+		/**
+		 * Totals for all nodes in the subtree
+		 */
+		final long[] allTotal;
+		final long[] matchedTotal;
+
+		Entry(int[] code, long[] all, long[] matched, long[] allTotal,
+				long[] matchedTotal) {
+			this.code = code;
+			this.all = all;
+			this.matched = matched;
+			this.allTotal = allTotal;
+			this.matchedTotal = matchedTotal;
+		}
+
+		/**
+		 * @return true if this is the entry of the subtree of the
+		 * specified size at from in the code of a tree
+		 */
+		boolean isFor(int[] treeCode, int from, int size) {
+			if (code.length != size) {
+				return false;
+			}
+			for (int i = 0; i < size; i++) {
+				if (code[i] != treeCode[from + i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	private final int limit;
+	private final Map<Long, Entry> entries;
+
+	private long hits = 0;
+	private long misses = 0;
+
+	/**
+	 * Creates an empty cache
+	 * @param capacity maximum number of subtrees
+	 * @param limit the largest fragment size that is counted, 0 for no limit
+	 */
+	public FragmentCountCache(final int capacity, int limit) {
+		this.limit = limit;
+		this.entries = new LinkedHashMap<Long, Entry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(
+					Map.Entry<Long, FragmentCountCache.Entry> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+
+	/**
+	 * @return the largest fragment size that is counted, 0 for no limit
+	 */
+	public int getLimit() {
+		return limit;
+	}
+
+	/**
+	 * Looks up the counts of a subtree
+	 * @param hash hash of the subtree code
+	 * @param treeCode code of the whole tree
+	 * @param from position of the subtree in the code (its root node)
+	 * @param size number of nodes in the subtree
+	 * @return the counts, or null if the subtree is not in the cache
+	 */
+	synchronized Entry get(long hash, int[] treeCode, int from, int size) {
+
+		Entry entry = entries.get(hash);
+		if (entry != null && entry.isFor(treeCode, from, size)) {
+			hits++;
+			return entry;
+		}
+
+		misses++;
+		return null;
+	}
+
+	/**
+	 * Adds the counts of a subtree
+	 * @param hash hash of the subtree code
+	 * @param treeCode code of the whole tree
+	 * @param from position of the subtree in the code (its root node)
+	 * @param size number of nodes in the subtree
+	 * @param all
+	 * @param matched
+	 * @param allTotal
+	 * @param matchedTotal
+	 */
+	synchronized void put(long hash, int[] treeCode, int from, int size,
+			long[] all, long[] matched, long[] allTotal, long[] matchedTotal) {
+		entries.put(hash, new Entry(
+				Arrays.copyOfRange(treeCode, from, from + size),
+				all, matched, allTotal, matchedTotal));
+	}
+
+	/**
+	 * @return number of subtrees found in the cache
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * @return number of subtrees looked up but not found
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * @return number of subtrees in the cache
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+}
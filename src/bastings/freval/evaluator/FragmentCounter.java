@@ -0,0 +1,416 @@
+package bastings.freval.evaluator;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+import bastings.freval.util.*;
+
+/**
+ * Counts fragments (connected subtrees) of a tree by size without
+ * generating them
+ *
+ * Every node v gets a size-generating polynomial P_v(x) whose coefficient
+ * for x^k is the number of fragments of size k that have v as their
+ * top node. A fragment rooted at v contains v and, for each child c,
+ * either nothing below c or a fragment rooted at c, so:
+ *
+ * 	P_v(x) = x * prod_c (1 + P_c(x))
+ *
+ * Summing P_v over all nodes (except our own root element) gives the
+ * number of fragments for every size. Matched fragments are counted in
+ * the same way, but only over nodes that match: a fragment matches iff
+ * every node in it matches, so Q_v = 0 for a node that does not match.
+ *
+ * Polynomials are truncated at the fragment-size limit, so the cost is
+ * at most quadratic in the number of nodes.
+ *
+ * The tree is an {@link ArrayTree}, so nodes are numbered in pre-order
+ * and all children of a node have a higher number than the node itself.
+ *
+ * With a {@link FragmentCountCache}, the polynomials of a subtree and the
+ * totals of all its nodes are looked up before the subtree is counted
+ * (largest subtrees first), so a subtree seen in an earlier sentence is
+ * not counted again.
+ *
+ * The polynomials are kept as longs. A tree with more fragments of some
+ * size than fit in a long (e.g. a node with many children) is counted
+ * again with BigIntegers, so the counts are always exact.
+ */
+public class FragmentCounter {
+
+	/**
+	 * Count the fragments in the tree and add them to the evaluation result
+	 * (equivalent to the enumeration in {@link Evaluator}, but without
+	 * creating any fragments)
+	 * @param tree
+	 * @param evalInfo
+	 * @param isGold if true, counts gold and matched fragments,
+	 * otherwise test fragments
+	 * @param limit the largest fragment size to count, 0 for no limit
+	 */
+	public static void count(ArrayTree tree,
+			DefaultEvaluationInfo evalInfo, boolean isGold, int limit) {
+		count(tree, evalInfo, isGold, limit, null);
+	}
+
+	/**
+	 * Count the fragments in the tree and add them to the evaluation result,
+	 * using and filling a cache of subtree counts
+	 * @param tree
+	 * @param evalInfo
+	 * @param isGold if true, counts gold and matched fragments,
+	 * otherwise test fragments
+	 * @param limit the largest fragment size to count, 0 for no limit
+	 * @param cache cache for the same limit, or null for none
+	 * @throws IllegalArgumentException if the cache is for another limit
+	 */
+	public static void count(ArrayTree tree, DefaultEvaluationInfo evalInfo, 
+			boolean isGold, int limit, FragmentCountCache cache) {
+
+		if (cache != null && cache.getLimit() != limit) {
+			throw new IllegalArgumentException(String.format(
+					"Fragment count cache for another limit (%d|%d)", 
+					cache.getLimit(), limit));
+		}
+
+		try {
+			countLong(tree, evalInfo, isGold, limit, cache);
+		} catch (ArithmeticException e) {
+			countExact(tree, evalInfo, isGold, limit);
+		}
+	}
+
+	/**
+	 * Count the fragments in the tree with longs
+	 * @throws ArithmeticException if a count does not fit in a long
+	 * (nothing is added to the result then)
+	 */
+	private static void countLong(ArrayTree tree, 
+			DefaultEvaluationInfo evalInfo, boolean isGold, int limit, 
+			FragmentCountCache cache) {
+
+		int nodeCount = tree.size();
+
+		// the largest fragment size we want to count
+		if (limit == 0 || limit > nodeCount) {
+			limit = nodeCount;
+		}
+
+		// polynomials per node, coefficient k is the count for size k
+		long[][] all = new long[nodeCount][];
+		long[][] matched = new long[nodeCount][];
+
+		// totals for the whole tree, by size
+		long[] allTotal = new long[limit + 1];
+		long[] matchedTotal = new long[limit + 1];
+
+		// the code and hash of every subtree, and the subtrees found
+		// in the cache (the nodes below them are covered)
+		int[] code = null;
+		long[] hash = null;
+		int[] size = null;
+		FragmentCountCache.Entry[] found = null;
+		boolean[] covered = null;
+
+		// totals for all nodes in a subtree, for subtrees that are cached
+		long[][] allSubtree = null;
+		long[][] matchedSubtree = null;
+
+		if (cache != null) {
+
+			code = new int[nodeCount];
+			hash = new long[nodeCount];
+			size = new int[nodeCount];
+			hashSubtrees(tree, isGold, code, hash, size);
+
+			found = new FragmentCountCache.Entry[nodeCount];
+			covered = new boolean[nodeCount];
+			for (int node = 1; node < nodeCount; node++) {
+				if (covered[tree.getParent(node)]) {
+					covered[node] = true;
+				} else if (size[node] >= FragmentCountCache.MIN_SIZE && 
+						size[node] <= FragmentCountCache.MAX_SIZE) {
+					found[node] = cache.get(hash[node], code, node, size[node]);
+					covered[node] = (found[node] != null);
+				}
+			}
+
+			allSubtree = new long[nodeCount][];
+			matchedSubtree = new long[nodeCount][];
+		}
+
+		// children have higher numbers than their parent, so going
+		// backwards they are done before their parent
+		// (skip our own root element, node 0)
+		for (int node = nodeCount - 1; node > 0; node--) {
+
+			if (cache != null) {
+
+				FragmentCountCache.Entry entry = found[node];
+				if (entry != null) {
+					all[node] = entry.all;
+					matched[node] = entry.matched;
+					allSubtree[node] = entry.allTotal;
+					matchedSubtree[node] = entry.matchedTotal;
+					add(allTotal, entry.allTotal);
+					add(matchedTotal, entry.matchedTotal);
+					continue;
+				}
+
+				if (covered[node]) {
+					continue; // counted with a subtree found in the cache
+				}
+			}
+
+			// only gold trees need the matched fragments
+			long[] p = new long[] { 0, 1 };
+			long[] q = isGold && tree.matches(node) ? new long[] { 0, 1 } : null;
+
+			for (int child = tree.getFirstChild(node); 
+			child != ArrayTree.NONE; child = tree.getNextSibling(child)) {
+				p = multiplyByOnePlus(p, all[child], limit);
+				if (q != null && matched[child] != null) {
+					q = multiplyByOnePlus(q, matched[child], limit);
+				}
+			}
+
+			all[node] = p;
+			matched[node] = q;
+
+			add(allTotal, p);
+			add(matchedTotal, q);
+
+			// add the totals of the subtree to the cache
+			if (cache != null && size[node] <= FragmentCountCache.MAX_SIZE) {
+
+				long[] allNodes = p.clone();
+				long[] matchedNodes = new long[p.length];
+				add(matchedNodes, q);
+				for (int child = tree.getFirstChild(node); 
+				child != ArrayTree.NONE; child = tree.getNextSibling(child)) {
+					add(allNodes, allSubtree[child]);
+					add(matchedNodes, matchedSubtree[child]);
+				}
+				allSubtree[node] = allNodes;
+				matchedSubtree[node] = matchedNodes;
+
+				if (size[node] >= FragmentCountCache.MIN_SIZE) {
+					cache.put(hash[node], code, node, size[node], 
+							p, q, allNodes, matchedNodes);
+				}
+			}
+		}
+
+		// add the counts to the result, in increasing size like
+		// the enumeration does
+		for (int k = 1; k <= limit; k++) {
+
+			if (allTotal[k] == 0) {
+				break; // no fragments of size k means no larger ones either
+			}
+
+			if (isGold) {
+				evalInfo.addGold(k, allTotal[k]);
+				evalInfo.addMatched(k, matchedTotal[k]);
+			} else {
+				evalInfo.addTest(k, allTotal[k]);
+			}
+		}
+
+	}
+
+	/**
+	 * Count the fragments in the tree with BigIntegers
+	 * (the same as {@link #countLong}, without a cache)
+	 */
+	private static void countExact(ArrayTree tree, 
+			DefaultEvaluationInfo evalInfo, boolean isGold, int limit) {
+
+		int nodeCount = tree.size();
+
+		// the largest fragment size we want to count
+		if (limit == 0 || limit > nodeCount) {
+			limit = nodeCount;
+		}
+
+		BigInteger[][] all = new BigInteger[nodeCount][];
+		BigInteger[][] matched = new BigInteger[nodeCount][];
+
+		BigInteger[] allTotal = new BigInteger[limit + 1];
+		BigInteger[] matchedTotal = new BigInteger[limit + 1];
+		Arrays.fill(allTotal, BigInteger.ZERO);
+		Arrays.fill(matchedTotal, BigInteger.ZERO);
+
+		BigInteger[] one = new BigInteger[] { BigInteger.ZERO, BigInteger.ONE };
+
+		for (int node = nodeCount - 1; node > 0; node--) {
+
+			BigInteger[] p = one;
+			BigInteger[] q = isGold && tree.matches(node) ? one : null;
+
+			for (int child = tree.getFirstChild(node); 
+			child != ArrayTree.NONE; child = tree.getNextSibling(child)) {
+				p = multiplyByOnePlus(p, all[child], limit);
+				if (q != null && matched[child] != null) {
+					q = multiplyByOnePlus(q, matched[child], limit);
+				}
+			}
+
+			all[node] = p;
+			matched[node] = q;
+
+			add(allTotal, p);
+			add(matchedTotal, q);
+		}
+
+		for (int k = 1; k <= limit; k++) {
+
+			if (allTotal[k].signum() == 0) {
+				break; // no fragments of size k means no larger ones either
+			}
+
+			if (isGold) {
+				evalInfo.addGold(k, allTotal[k]);
+				evalInfo.addMatched(k, matchedTotal[k]);
+			} else {
+				evalInfo.addTest(k, allTotal[k]);
+			}
+		}
+	}
+
+	/**
+	 * Computes the code, hash and size of every subtree: the code of a node
+	 * is its number of children and its match flag (for gold trees), the
+	 * hash of a subtree combines the code of its root with the hashes of
+	 * the subtrees of its children, in order
+	 * @param tree
+	 * @param isGold
+	 * @param code
+	 * @param hash
+	 * @param size
+	 */
+	private static void hashSubtrees(ArrayTree tree, boolean isGold, 
+			int[] code, long[] hash, int[] size) {
+
+		for (int node = tree.size() - 1; node >= 0; node--) {
+
+			int children = 0;
+			int nodes = 1;
+			long h = 0;
+			for (int child = tree.getFirstChild(node); 
+			child != ArrayTree.NONE; child = tree.getNextSibling(child)) {
+				children++;
+				nodes += size[child];
+				h = mix(h * 0x9E3779B97F4A7C15L + hash[child]);
+			}
+
+			code[node] = (children << 1) | 
+				(isGold && tree.matches(node) ? 1 : 0);
+			hash[node] = mix(h ^ code[node]);
+			size[node] = nodes;
+		}
+	}
+
+	/**
+	 * Scrambles the bits of a hash (the finalizer of MurmurHash3)
+	 * @param h
+	 * @return scrambled hash
+	 */
+	static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xFF51AFD7ED558CCDL;
+		h ^= h >>> 33;
+		h *= 0xC4CEB9FE1A85EC53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	/**
+	 * Adds a polynomial to a (longer) one
+	 * @param total
+	 * @param p polynomial, or null for none
+	 * @throws ArithmeticException if a coefficient overflows
+	 */
+	private static void add(long[] total, long[] p) {
+		if (p != null) {
+			for (int k = 1; k < p.length; k++) {
+				total[k] = Math.addExact(total[k], p[k]);
+			}
+		}
+	}
+
+	/**
+	 * Adds a polynomial to a (longer) one
+	 * @param total
+	 * @param p polynomial, or null for none
+	 */
+	private static void add(BigInteger[] total, BigInteger[] p) {
+		if (p != null) {
+			for (int k = 1; k < p.length; k++) {
+				total[k] = total[k].add(p[k]);
+			}
+		}
+	}
+
+	/**
+	 * Returns p * (1 + c), truncated after the coefficient of x^limit
+	 * @param p polynomial
+	 * @param c polynomial without constant term
+	 * @param limit
+	 * @return product
+	 * @throws ArithmeticException if a coefficient overflows
+	 */
+	private static long[] multiplyByOnePlus(long[] p, long[] c, int limit) {
+
+		long[] result = new long[Math.min(p.length + c.length - 1, limit + 1)];
+
+		for (int i = 0; i < p.length; i++) {
+
+			if (p[i] == 0) {
+				continue;
+			}
+
+			// the 1 in (1 + c)
+			result[i] = Math.addExact(result[i], p[i]);
+
+			for (int j = 1; j < c.length && i + j < result.length; j++) {
+				result[i + j] = Math.addExact(result[i + j], 
+						Math.multiplyExact(p[i], c[j]));
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Returns p * (1 + c), truncated after the coefficient of x^limit
+	 * @param p polynomial
+	 * @param c polynomial without constant term
+	 * @param limit
+	 * @return product
+	 */
+	private static BigInteger[] multiplyByOnePlus(BigInteger[] p, 
+			BigInteger[] c, int limit) {
+
+		BigInteger[] result = 
+			new BigInteger[Math.min(p.length + c.length - 1, limit + 1)];
+		Arrays.fill(result, BigInteger.ZERO);
+
+		for (int i = 0; i < p.length; i++) {
+
+			if (p[i].signum() == 0) {
+				continue;
+			}
+
+			// the 1 in (1 + c)
+			result[i] = result[i].add(p[i]);
+
+			for (int j = 1; j < c.length && i + j < result.length; j++) {
+				result[i + j] = result[i + j].add(p[i].multiply(c[j]));
+			}
+		}
+
+		return result;
+	}
+
+}
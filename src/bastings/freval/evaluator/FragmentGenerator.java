@@ -1,42 +1,674 @@
 package bastings.freval.evaluator;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
 
+import bastings.freval.Settings;
 import bastings.freval.util.*;
 
 /**
- * A class with functions that generate fragments
- * 
- * 
- * TODO move functions to this class
- * This functionality currently is found in Evaluator.java
+ * Generates the fragments (connected subtrees) of a tree
  *
+ * Every fragment is generated exactly once, from a fragment that is one
+ * node smaller, by either
+ *
+ * 	(1) adding a child of a deepest node in the fragment, or
+ *
+ * 	(2) adding a node on the same level as the right-most deepest node,
+ *      to the right of that node in the tree (and connected to the
+ *      fragment)
+ *
+ * so the fragments form a tree themselves, with the single nodes
+ * as roots. A generator walks that tree depth-first with an explicit
+ * stack: a stack level holds a fragment and the position of its next
+ * extension, so it does not need the list of all its extensions, and
+ * the next fragment is found without recursion. The stack is as deep
+ * as the largest fragment, and the fragments on it are reused, so
+ * (for trees of up to 64 nodes) generating a fragment creates no objects.
+ *
+ * Both kinds of extension only add nodes at the deepest level of a
+ * fragment, to the right of the nodes there. So the generator also keeps
+ * the nodes of the fragment on top of the stack in the order they were
+ * added, which is by depth and then from left to right, and the nodes
+ * the extensions are anchored at (the deepest nodes, and the nodes one
+ * level up from the parent of the right-most deepest node on) follow
+ * each other there. Moving to the next anchor or the next child takes
+ * constant time, without looking at the other nodes of the fragment.
+ * The delay between two fragments is not constant though: the bitset of
+ * a new fragment is copied (a word per 64 nodes of the tree), anchors
+ * without children are stepped over one by one, and a fragment that is
+ * started from a seed first has the nodes of the seed sorted.
+ *
+ * The fragments come in the same order as the recursive enumeration
+ * they replace, which also keeps the debug level 4 fragment output the same.
+ *
+ * A generator can also generate only the fragments of which every node
+ * matches (e.g. when the gold counts are known already, @see
+ * {@link GoldCountCache}). A fragment that matches is always extended
+ * from a smaller one that matches, so skipping the nodes that do not
+ * match skips exactly the fragments that do not match.
+ *
+ * To use the fragments outside of the evaluation (e.g. as a library),
+ * {@link #iterator(ArrayTree, int, int)} and
+ * {@link #spliterator(ArrayTree, int, int)} hand them out lazily as
+ * {@link FragmentInfo}s; the trees of a pair come from
+ * {@link Evaluator#prepare(Node, Node)}. The spliterator splits, so
+ * <code>StreamSupport.stream(spliterator, true)</code> processes the
+ * fragments in parallel, without generating them up front.
  */
 public class FragmentGenerator {
 
+	/**
+	 * Phases of the extension of a fragment on the stack
+	 */
+	private static final int TYPE_1 = 1;
+	private static final int TYPE_2 = 2;
+	private static final int DONE = 3;
+
+	private final ArrayTree tree;
+
+	/**
+	 * The largest fragment size, 0 for no limit
+	 */
+	private final int limit;
+
+	/**
+	 * The stack, a fragment per level, with the phase of its extension,
+	 * the node (anchor) whose children are added in the current phase
+	 * and the next child to add
+	 */
+	private Fragment[] fragments = new Fragment[8];
+	private int[] phase = new int[8];
+	private int[] anchor = new int[8];
+	private int[] child = new int[8];
+	private int top = -1;
+
+	/**
+	 * The nodes of the fragment on top of the stack, by depth and then
+	 * in pre-order (the fragment at stack level l has the first
+	 * seedSize + l of them), with for every node the position of the
+	 * first node on its depth, and the position of its parent (only
+	 * known for the nodes added by an extension, and the last node of
+	 * the seed)
+	 */
+	private int[] order = new int[8];
+	private int[] depthStart = new int[8];
+	private int[] parentAt = new int[8];
+	private int seedSize;
+
+	/**
+	 * The single-node fragment to start with next, and where to stop
+	 * (exclusive)
+	 */
+	private int nextRoot;
+	private int endRoot;
+
+	/**
+	 * The fragment to start with, if the generator only generates
+	 * the fragments grown from it
+	 */
+	private Fragment seed;
+
+	/**
+	 * True if only fragments of matching nodes are generated
+	 */
+	private final boolean matchedOnly;
+
+	/**
+	 * Fragment used for debug output
+	 */
+	private Fragment scratch;
+
+	/**
+	 * Generator for all fragments of the tree
+	 * (except those containing our own root element, node 0)
+	 * @param tree
+	 * @param limit the largest fragment size, 0 for no limit
+	 */
+	public FragmentGenerator(ArrayTree tree, int limit) {
+		this(tree, limit, false);
+	}
+
+	/**
+	 * Generator for all fragments of the tree, or only those that match
+	 * (except those containing our own root element, node 0)
+	 * @param tree
+	 * @param limit the largest fragment size, 0 for no limit
+	 * @param matchedOnly if true, only fragments of matching nodes
+	 */
+	public FragmentGenerator(ArrayTree tree, int limit, boolean matchedOnly) {
+		this(tree, limit, 1, tree.size(), matchedOnly);
+	}
+
+	/**
+	 * Generator for the fragments of which the root (the single node
+	 * they are grown from) is in a range of nodes, or only those that match
+	 * @param tree
+	 * @param limit the largest fragment size, 0 for no limit
+	 * @param fromRoot the first root (inclusive)
+	 * @param toRoot the last root (exclusive)
+	 * @param matchedOnly if true, only fragments of matching nodes
+	 */
+	FragmentGenerator(ArrayTree tree, int limit, int fromRoot, int toRoot,
+			boolean matchedOnly) {
+		this.tree = tree;
+		this.limit = limit;
+		this.matchedOnly = matchedOnly;
+		this.nextRoot = fromRoot;
+		this.endRoot = toRoot;
+	}
+
+	/**
+	 * Generator for a fragment and all fragments grown from it
+	 * @param tree
+	 * @param limit the largest fragment size, 0 for no limit
+	 * @param seed
+	 */
+	public FragmentGenerator(ArrayTree tree, int limit, Fragment seed) {
+		this(tree, limit, seed, false);
+	}
+
+	/**
+	 * Generator for a fragment and all fragments grown from it, or only
+	 * those that match
+	 * @param tree
+	 * @param limit the largest fragment size, 0 for no limit
+	 * @param seed
+	 * @param matchedOnly if true, only fragments of matching nodes
+	 * (the seed should match)
+	 */
+	public FragmentGenerator(ArrayTree tree, int limit, Fragment seed,
+			boolean matchedOnly) {
+		this.tree = tree;
+		this.limit = limit;
+		this.seed = seed;
+		this.matchedOnly = matchedOnly;
+	}
+
+	/**
+	 * @return true if only fragments of matching nodes are generated
+	 */
+	public boolean isMatchedOnly() {
+		return matchedOnly;
+	}
+
+	/**
+	 * Moves to the next fragment
+	 * @return false if there are no more fragments
+	 */
+	public boolean next() {
+
+		while (top >= 0) {
+
+			int c = nextGeneratedExtension(top);
+
+			if (c != ArrayTree.NONE) {
+				addToOrder(seedSize + top, c, anchor[top]);
+				Fragment f = push();
+				f.copyFrom(fragments[top - 1]);
+				f.add(c, tree.getDepth(c), tree.matches(c));
+				start();
+				return true;
+			}
+
+			top--; // all extensions done
+		}
+
+		// start with the next root
+		if (seed != null) {
+			push().copyFrom(seed);
+			seed = null;
+			startOrder(fragments[top]);
+		} else if (nextRoot < endRoot) {
+			while (matchedOnly && nextRoot < endRoot && 
+					!tree.matches(nextRoot)) {
+				nextRoot++;
+			}
+			if (nextRoot == endRoot) {
+				return false;
+			}
+			Fragment f = push();
+			f.clear();
+			f.add(nextRoot, tree.getDepth(nextRoot), tree.matches(nextRoot));
+			nextRoot++;
+			startOrder(f);
+		} else {
+			return false;
+		}
+
+		start();
+		return true;
+	}
+
+	/**
+	 * Starts again with a fragment and all fragments grown from it,
+	 * after all fragments are generated (the fragments on the stack are
+	 * reused, so for a generator that starts from many seeds only
+	 * the seed is new)
+	 * @param seed copied when {@link #next()} is called
+	 */
+	void restart(Fragment seed) {
+		this.seed = seed;
+		top = -1;
+		nextRoot = endRoot;
+	}
+
+	/**
+	 * Splits off the roots that are not started yet (e.g. to generate
+	 * their fragments on another thread): this generator keeps the
+	 * fragments of the root it is at and the first half of the roots,
+	 * the new generator gets the second half
+	 * @return generator for the second half of the roots, or null if
+	 * there are none to split off
+	 */
+	FragmentGenerator splitRoots() {
+
+		// a generator that has not started keeps at least one root
+		int left = endRoot - nextRoot;
+		if (left < (top < 0 ? 2 : 1)) {
+			return null;
+		}
+
+		int middle = (nextRoot + endRoot) >>> 1;
+		FragmentGenerator rest = 
+			new FragmentGenerator(tree, limit, middle, endRoot, matchedOnly);
+		endRoot = middle;
+		return rest;
+	}
+
+	/**
+	 * @return the root, if the generator has not started and has a
+	 * single root, otherwise {@link ArrayTree#NONE}
+	 */
+	int getSingleRoot() {
+		if (top < 0 && seed == null && endRoot - nextRoot == 1) {
+			return nextRoot;
+		}
+		return ArrayTree.NONE;
+	}
+
+	/**
+	 * Returns the current fragment
+	 * <b>Note: the fragment is reused, it changes when {@link #next()}
+	 * is called</b>
+	 * @return fragment
+	 */
+	public Fragment getFragment() {
+		return fragments[top];
+	}
+
+	/**
+	 * Returns the fragments of a tree, generated while iterating
+	 * (except those containing our own root element, node 0)
+	 * @param tree
+	 * @param minSize the smallest fragment size to return
+	 * @param maxSize the largest fragment size to return, 0 for no limit
+	 * @return iterator over the fragments
+	 * @throws IllegalArgumentException if there are no sizes to return
+	 */
+	public static Iterator<FragmentInfo> iterator(ArrayTree tree,
+			int minSize, int maxSize) {
+		return Spliterators.iterator(spliterator(tree, minSize, maxSize));
+	}
+
+	/**
+	 * Returns the fragments of a tree, generated while traversing
+	 * (except those containing our own root element, node 0)
+	 * The spliterator can be split, in the order of the fragments
+	 * @param tree
+	 * @param minSize the smallest fragment size to return
+	 * @param maxSize the largest fragment size to return, 0 for no limit
+	 * @return spliterator over the fragments
+	 * @throws IllegalArgumentException if there are no sizes to return
+	 */
+	public static Spliterator<FragmentInfo> spliterator(ArrayTree tree,
+			int minSize, int maxSize) {
+
+		if (maxSize < 0 || (maxSize != 0 && minSize > maxSize)) {
+			throw new IllegalArgumentException(String.format(
+					"Invalid fragment sizes (%d|%d)", minSize, maxSize));
+		}
+
+		return new FragmentSpliterator(tree, minSize, maxSize);
+	}
+
+	/**
+	 * Generates the fragments one node larger than a fragment
+	 * @param tree
+	 * @param f
+	 * @return new fragments
+	 */
+	public static List<Fragment> generate(ArrayTree tree, Fragment f) {
+		return generate(tree, f, false);
+	}
 
 	/**
-	 * Generates a list of fragments of size N+1 from a fragment
-	 * of size N
-	 * 
-	 * If the specified fragment completely matches, the new fragments
-	 * are checked for complete match as well. 
-	 * 
-	 * If the specified fragment does not completely match,
-	 * the new fragments will never completely match so there is no check.
-	 *
+	 * Generates the fragments one node larger than a fragment, or only
+	 * those that match
+	 * @param tree
 	 * @param f
-	 * @return
-	 */
-	public static List<Fragment> generate(Fragment f) {
-		
-		List<Fragment> generatedFragments = new ArrayList<Fragment>();
-		
-		
-		
+	 * @param matchedOnly if true, only fragments of matching nodes
+	 * @return new fragments
+	 */
+	public static List<Fragment> generate(ArrayTree tree, Fragment f,
+			boolean matchedOnly) {
+
+		int[] extensions = extensions(tree, f, matchedOnly);
+		List<Fragment> generatedFragments = 
+			new ArrayList<Fragment>(extensions.length);
+
+		for (int c : extensions) {
+			generatedFragments.add(f.extend(c, tree.getDepth(c),
+					tree.matches(c)));
+		}
+
 		return generatedFragments;
-		
+	}
+
+	/**
+	 * Returns the nodes that the fragments one node larger than a fragment
+	 * add to it, in the order of {@link #generate(ArrayTree, Fragment)}
+	 * (the fragments themselves are not created, so the extensions of
+	 * a fragment with many of them take little memory)
+	 * @param tree
+	 * @param f
+	 * @param matchedOnly if true, only matching nodes
+	 * @return the nodes
+	 */
+	static int[] extensions(ArrayTree tree, Fragment f, boolean matchedOnly) {
+
+		int[] extensions = new int[4];
+		int count = 0;
+
+		FragmentGenerator generator = 
+			new FragmentGenerator(tree, 0, f, matchedOnly);
+		generator.next();
+
+		for (int c = generator.nextGeneratedExtension(0); 
+		c != ArrayTree.NONE; c = generator.nextGeneratedExtension(0)) {
+			if (count == extensions.length) {
+				extensions = Arrays.copyOf(extensions, 2 * count);
+			}
+			extensions[count++] = c;
+		}
+
+		return Arrays.copyOf(extensions, count);
+	}
+
+	/**
+	 * Pushes a level on the stack
+	 * @return the (reused) fragment of the new level
+	 */
+	private Fragment push() {
+
+		top++;
+
+		if (top == fragments.length) {
+			int length = 2 * fragments.length;
+			fragments = Arrays.copyOf(fragments, length);
+			phase = Arrays.copyOf(phase, length);
+			anchor = Arrays.copyOf(anchor, length);
+			child = Arrays.copyOf(child, length);
+		}
+
+		if (fragments[top] == null) {
+			fragments[top] = new Fragment(tree.size());
+		}
+
+		return fragments[top];
+	}
+
+	/**
+	 * Starts the order of the nodes with the fragment at the bottom of
+	 * the stack (the nodes of a seed are sorted by depth)
+	 * @param f
+	 */
+	private void startOrder(Fragment f) {
+
+		seedSize = f.size();
+		ensureOrder(seedSize);
+
+		if (seedSize == 1) {
+			order[0] = f.first();
+			depthStart[0] = 0;
+			parentAt[0] = -1;
+			return;
+		}
+
+		long[] keys = new long[seedSize];
+		int k = 0;
+		for (int n = f.first(); n != Fragment.NONE; n = f.next(n)) {
+			keys[k++] = ((long) tree.getDepth(n) << 32) | n;
+		}
+		Arrays.sort(keys);
+
+		for (int i = 0; i < seedSize; i++) {
+			order[i] = (int) keys[i];
+			depthStart[i] = (i > 0 && 
+					tree.getDepth(order[i]) == tree.getDepth(order[i - 1]) ? 
+							depthStart[i - 1] : i);
+			parentAt[i] = -1;
+		}
+
+		// the parent of the right-most deepest node, one level up
+		int last = seedSize - 1;
+		int parent = tree.getParent(order[last]);
+		for (int i = depthStart[last] - 1; i >= 0; i--) {
+			if (order[i] == parent) {
+				parentAt[last] = i;
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Adds a node to the order, after the nodes of the fragment it extends
+	 * @param position
+	 * @param node
+	 * @param parent position of its parent
+	 */
+	private void addToOrder(int position, int node, int parent) {
+
+		ensureOrder(position + 1);
+
+		order[position] = node;
+		parentAt[position] = parent;
+		depthStart[position] = 
+			(tree.getDepth(node) == tree.getDepth(order[position - 1]) ? 
+					depthStart[position - 1] : position);
+	}
+
+	/**
+	 * Makes room for a number of nodes in the order
+	 * @param size
+	 */
+	private void ensureOrder(int size) {
+		if (size > order.length) {
+			int length = Math.max(2 * order.length, size);
+			order = Arrays.copyOf(order, length);
+			depthStart = Arrays.copyOf(depthStart, length);
+			parentAt = Arrays.copyOf(parentAt, length);
+		}
+	}
+
+	/**
+	 * Starts the extension of the fragment on top of the stack
+	 * (debug level 4 prints all its extensions)
+	 */
+	private void start() {
+
+		reset(top);
+
+		// if this is the largest fragment we want to generate,
+		// do not extend it any further
+		if (limit != 0 && fragments[top].size() == limit) {
+			phase[top] = DONE;
+			return;
+		}
+
+		if (Settings.debug > 3) {
+			printExtensions(top);
+			reset(top);
+		}
+	}
+
+	/**
+	 * Sets the extension of a level to the start
+	 * @param level
+	 */
+	private void reset(int level) {
+		phase[level] = TYPE_1;
+		anchor[level] = -1; // before the first anchor
+		child[level] = ArrayTree.NONE;
+	}
+
+	/**
+	 * Returns the next node to extend the fragment at a level with,
+	 * that is generated (a node that matches, if only fragments of
+	 * matching nodes are generated)
+	 * @param level
+	 * @return node, or {@link ArrayTree#NONE} if there are no more
+	 */
+	private int nextGeneratedExtension(int level) {
+
+		int c = nextExtension(level);
+		while (matchedOnly && c != ArrayTree.NONE && !tree.matches(c)) {
+			c = nextExtension(level);
+		}
+
+		return c;
+	}
+
+	/**
+	 * Returns the next node to extend the fragment at a level with
+	 * @param level
+	 * @return node, or {@link ArrayTree#NONE} if there are no more
+	 */
+	private int nextExtension(int level) {
+
+		// the position of the right-most deepest node in the order
+		int last = seedSize + level - 1;
+
+		while (true) {
+
+			// the next child of the current anchor
+			int c = child[level];
+			if (c != ArrayTree.NONE) {
+				child[level] = tree.getNextSibling(c);
+				return c;
+			}
+
+			switch (phase[level]) {
+
+			case TYPE_1:
+
+				/*
+				 * extension type 1
+				 *
+				 * for each node having the max level in the fragment,
+				 * add a child
+				 */
+				// (the max-level nodes are the last ones in the order,
+				// the anchor is a position in the order)
+				int a = (anchor[level] < 0 ? depthStart[last] : 
+					anchor[level] + 1);
+				if (a <= last) {
+					anchor[level] = a;
+					child[level] = tree.getFirstChild(order[a]);
+					continue;
+				}
+
+				// this extension does not work if the maxlevel node is
+				// 'root' of the fragment, because it has no parent
+				if (last == 0) {
+					phase[level] = DONE;
+					return ArrayTree.NONE;
+				}
+
+				/*
+				 * extension type 2
+				 *
+				 * for the RIGHT MOST max-level node, add nodes *to the
+				 * right of it* that have the *same* level (and are
+				 * connected to the fragment)
+				 *
+				 * The parents of those nodes are the parent of the
+				 * right-most max-level node (starting after that node),
+				 * and the nodes on the same level as that parent after it
+				 * (up to the deepest nodes in the order)
+				 */
+				phase[level] = TYPE_2;
+				anchor[level] = parentAt[last];
+				child[level] = tree.getNextSibling(order[last]);
+				continue;
+
+			case TYPE_2:
+
+				a = anchor[level] + 1;
+				if (a < depthStart[last]) {
+					anchor[level] = a;
+					child[level] = tree.getFirstChild(order[a]);
+					continue;
+				}
+
+				phase[level] = DONE;
+				return ArrayTree.NONE;
+
+			default:
+				return ArrayTree.NONE;
+			}
+		}
+	}
+
+	/**
+	 * Level 4 debug - prints the extensions of the fragment at a level
+	 * @param level
+	 */
+	private void printExtensions(int level) {
+
+		Fragment f = fragments[level];
+		if (scratch == null) {
+			scratch = new Fragment(tree.size());
+		}
+
+		for (int c = nextExtension(level); c != ArrayTree.NONE;
+		c = nextExtension(level)) {
+
+			scratch.copyFrom(f);
+			scratch.add(c, tree.getDepth(c), tree.matches(c));
+
+			if (phase[level] == TYPE_1) {
+				int node = order[anchor[level]];
+				System.out.println(String.format(
+						"fragment treeID=%d type=1 size=%d maxlevelnode=%d(%s) " +
+						"added=%d(%s) list=%s",
+						tree.getTreeID(),
+						scratch.size(),
+						node,
+						tree.getName(node),
+						c,
+						tree.getName(c),
+						scratch)
+				);
+			} else {
+				int rmmlNode = f.getRightMostDeepest();
+				System.out.println(String.format(
+						"fragment treeID=%d type=2 size=%d " +
+						"rmmlnode=%d(%s) added=%d(%s) list=%s",
+						tree.getTreeID(),
+						scratch.size(),
+						rmmlNode,
+						tree.getName(rmmlNode),
+						c,
+						tree.getName(c),
+						scratch)
+				);
+			}
+		}
 	}
 
 }
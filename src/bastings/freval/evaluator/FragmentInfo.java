@@ -0,0 +1,100 @@
+package bastings.freval.evaluator;
+
+import bastings.freval.util.*;
+
+/**
+ * A generated fragment, as handed out by
+ * {@link FragmentGenerator#iterator(ArrayTree, int, int)} and
+ * {@link FragmentGenerator#spliterator(ArrayTree, int, int)}
+ *
+ * Unlike the {@link Fragment} objects a generator reuses, a fragment info
+ * is a copy that does not change, so it can be kept and passed between
+ * threads.
+ */
+public class FragmentInfo {
+
+	private final int treeID;
+	private final int[] nodes;
+	private final String rootLabel;
+	private final boolean matches;
+
+	/**
+	 * Copies a fragment of a tree
+	 * @param tree
+	 * @param f
+	 */
+	public FragmentInfo(ArrayTree tree, Fragment f) {
+
+		treeID = tree.getTreeID();
+		nodes = new int[f.size()];
+
+		int i = 0;
+		for (int node = f.first(); node != Fragment.NONE; node = f.next(node)) {
+			nodes[i++] = node;
+		}
+
+		// nodes are in pre-order, so the first one is the root
+		rootLabel = tree.getName(nodes[0]);
+		matches = f.matches();
+	}
+
+	/**
+	 * @return the ID of the tree ("sentence number")
+	 */
+	public int getTreeID() {
+		return treeID;
+	}
+
+	/**
+	 * @return the number of nodes in the fragment
+	 */
+	public int size() {
+		return nodes.length;
+	}
+
+	/**
+	 * @return the root node of the fragment
+	 */
+	public int getRoot() {
+		return nodes[0];
+	}
+
+	/**
+	 * @return the label of the root node of the fragment
+	 */
+	public String getRootLabel() {
+		return rootLabel;
+	}
+
+	/**
+	 * @return the node IDs of the fragment, in pre-order
+	 */
+	public int[] getNodes() {
+		return nodes.clone();
+	}
+
+	/**
+	 * @return true if every node of the fragment matches
+	 */
+	public boolean matches() {
+		return matches;
+	}
+
+	/**
+	 * String representation
+	 */
+	public String toString() {
+
+		StringBuffer sb = new StringBuffer();
+		sb.append(String.format("fragment treeID=%d size=%d root=%d(%s) " +
+				"matches=%b list=( ", treeID, nodes.length, nodes[0],
+				rootLabel, matches));
+		for (int node : nodes) {
+			sb.append(node);
+			sb.append(" ");
+		}
+		sb.append(")");
+		return sb.toString();
+	}
+
+}
@@ -0,0 +1,224 @@
+package bastings.freval.evaluator;
+
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+import bastings.freval.util.*;
+
+/**
+ * Generates the fragments of a tree lazily, as a {@link Spliterator},
+ * @see {@link FragmentGenerator#spliterator(ArrayTree, int, int)}
+ *
+ * A spliterator starts with a {@link FragmentGenerator} for a range of
+ * roots (the single nodes the fragments are grown from), and splits like
+ * a {@link FragmentTask}: the roots that are not started yet are split in
+ * halves, and a single root that is not started yet is replaced by the
+ * nodes it is extended with (the root itself goes to the first half).
+ * A fragment is only created when its generator starts, so the memory
+ * does not grow with the number of roots. The fragments keep the order
+ * of a single generator.
+ */
+class FragmentSpliterator implements Spliterator<FragmentInfo> {
+
+	private final ArrayTree tree;
+	private final int minSize;
+	private final int maxSize;
+
+	/**
+	 * Fragment to hand out on its own, before the others (or null)
+	 */
+	private Fragment single;
+
+	/**
+	 * Generator for a range of roots, or for the current extension
+	 * of the base (or null)
+	 */
+	private FragmentGenerator generator;
+
+	/**
+	 * Once a single fragment is split: that fragment, and the nodes
+	 * it is extended with, from index (inclusive) to end (exclusive)
+	 */
+	private Fragment base;
+	private int[] extensions;
+	private int index;
+	private int end;
+
+	/**
+	 * The base with the next node, and a generator that is done,
+	 * to start the next extension with
+	 */
+	private Fragment seed;
+	private FragmentGenerator spare;
+
+	/**
+	 * Spliterator for all fragments of the tree
+	 * (except those containing our own root element, node 0)
+	 * @param tree
+	 * @param minSize the smallest fragment size to hand out
+	 * @param maxSize the largest fragment size, 0 for no limit
+	 */
+	FragmentSpliterator(ArrayTree tree, int minSize, int maxSize) {
+		this.tree = tree;
+		this.minSize = minSize;
+		this.maxSize = maxSize;
+		this.generator = new FragmentGenerator(tree, maxSize, false);
+	}
+
+	/**
+	 * Spliterator for the first part of another one
+	 * @param s
+	 * @param generator its generator
+	 * @param to the end of its extensions that are handed out
+	 */
+	private FragmentSpliterator(FragmentSpliterator s,
+			FragmentGenerator generator, int to) {
+		this.tree = s.tree;
+		this.minSize = s.minSize;
+		this.maxSize = s.maxSize;
+		this.single = s.single;
+		this.generator = generator;
+		this.base = s.base;
+		this.extensions = s.extensions;
+		this.index = s.index;
+		this.end = to;
+	}
+
+	@Override
+	public boolean tryAdvance(Consumer<? super FragmentInfo> action) {
+
+		while (true) {
+
+			if (single != null) {
+				Fragment f = single;
+				single = null;
+				if (f.size() >= minSize) {
+					action.accept(new FragmentInfo(tree, f));
+					return true;
+				}
+				continue;
+			}
+
+			if (generator != null) {
+				while (generator.next()) {
+					Fragment f = generator.getFragment();
+					if (f.size() >= minSize) {
+						action.accept(new FragmentInfo(tree, f));
+						return true;
+					}
+				}
+				if (base == null) {
+					return false; // all roots are done
+				}
+				spare = generator;
+				generator = null;
+			}
+
+			if (base == null || index == end) {
+				return false;
+			}
+
+			// start the next extension
+			int c = extensions[index++];
+			if (seed == null) {
+				seed = new Fragment(tree.size());
+			}
+			seed.copyFrom(base);
+			seed.add(c, tree.getDepth(c), tree.matches(c));
+			if (spare == null) {
+				generator = new FragmentGenerator(tree, maxSize, seed);
+			} else {
+				generator = spare;
+				generator.restart(seed);
+				spare = null;
+			}
+		}
+	}
+
+	@Override
+	public Spliterator<FragmentInfo> trySplit() {
+
+		if (base == null) {
+
+			// the roots in halves, the first half goes to the new spliterator
+			FragmentGenerator rest = generator.splitRoots();
+			if (rest != null) {
+				FragmentSpliterator prefix =
+					new FragmentSpliterator(this, generator, end);
+				generator = rest;
+				return prefix;
+			}
+
+			// replace a single root by its extensions
+			int root = generator.getSingleRoot();
+			if (root == ArrayTree.NONE) {
+				return null;
+			}
+			Fragment f = new Fragment(tree.size());
+			f.add(root, tree.getDepth(root), tree.matches(root));
+			if (!extend(f)) {
+				return null;
+			}
+			generator = null;
+
+		} else if (single == null && generator == null && end - index == 1) {
+
+			// replace a single extension by its extensions
+			int c = extensions[index];
+			if (!extend(base.extend(c, tree.getDepth(c), tree.matches(c)))) {
+				return null;
+			}
+		}
+
+		// the extensions in halves, the first half (and what comes before
+		// them) goes to the new spliterator
+		boolean started = (single != null || generator != null);
+		if (end - index < (started ? 1 : 2)) {
+			return null;
+		}
+
+		int middle = (index + end) >>> 1;
+		FragmentSpliterator prefix =
+			new FragmentSpliterator(this, generator, middle);
+		single = null;
+		generator = null;
+		index = middle;
+		return prefix;
+	}
+
+	/**
+	 * Makes a fragment that is not started yet the base, to be handed
+	 * out on its own and then extended
+	 * @param f
+	 * @return false if it has no extensions (nothing changes)
+	 */
+	private boolean extend(Fragment f) {
+
+		if (maxSize != 0 && f.size() >= maxSize) {
+			return false;
+		}
+
+		int[] nodes = FragmentGenerator.extensions(tree, f, false);
+		if (nodes.length == 0) {
+			return false;
+		}
+
+		single = f;
+		base = f;
+		extensions = nodes;
+		index = 0;
+		end = nodes.length;
+		return true;
+	}
+
+	@Override
+	public long estimateSize() {
+		return Long.MAX_VALUE; // not known without counting
+	}
+
+	@Override
+	public int characteristics() {
+		return ORDERED | NONNULL | IMMUTABLE;
+	}
+
+}
@@ -0,0 +1,178 @@
+package bastings.freval.evaluator;
+
+import java.util.concurrent.RecursiveTask;
+
+import bastings.freval.util.*;
+
+/**
+ * Enumerates the fragments of a tree as a fork/join task, so the
+ * fragments of one (large) tree can be enumerated on several threads
+ *
+ * A task has a range of fragments to start from: either single nodes
+ * (the roots of the fragments), or a fragment extended with each of a
+ * list of nodes. The range is split in halves until a single fragment
+ * remains, which is only created then, so the tasks of a large tree take
+ * little memory. Small fragments split their extensions over new tasks,
+ * larger ones are enumerated on the current thread by a
+ * {@link FragmentGenerator}
+ *
+ * Every task counts into its own {@link DefaultEvaluationInfo},
+ * the counts are added up when the tasks are joined.
+ *
+ * All tasks of a sentence spend the same {@link EnumerationBudget}, once it
+ * is exceeded the tasks stop (the counts are incomplete then).
+ *
+ * For a gold tree the tasks can count only the matched fragments (when
+ * the gold counts are known already), then only fragments of matching
+ * nodes are generated.
+ */
+class FragmentTask extends RecursiveTask<DefaultEvaluationInfo> {
+
+	/**
+	 * serial version UID
+	 */
+	private static final long serialVersionUID = -1817362390513652651L;
+
+	/**
+	 * Fragments smaller than this split their extensions over new tasks
+	 */
+	private static final int SPLIT_SIZE = 4;
+
+	private final ArrayTree tree;
+
+	/**
+	 * The fragment that is extended with the nodes from index from
+	 * (inclusive) to index to (exclusive), or null if the nodes from
+	 * from to to are the roots
+	 */
+	private final Fragment base;
+	private final int[] extensions;
+	private final int from;
+	private final int to;
+	private final boolean isGold;
+	private final boolean matchedOnly;
+	private final int limit;
+	private final EnumerationBudget budget;
+
+	/**
+	 * Task for all fragments of a tree
+	 * (except those containing our own root element, node 0)
+	 * @param tree
+	 * @param isGold
+	 * @param limit the largest fragment size, 0 for no limit
+	 * @param budget the enumeration budget, or null for none
+	 */
+	public FragmentTask(ArrayTree tree, boolean isGold, int limit, 
+			EnumerationBudget budget) {
+		this(tree, null, null, 1, tree.size(), isGold, false, limit, budget);
+	}
+
+	/**
+	 * Task for the matched fragments of a gold tree
+	 * (except those containing our own root element, node 0)
+	 * @param tree
+	 * @param limit the largest fragment size, 0 for no limit
+	 * @param budget the enumeration budget, or null for none
+	 */
+	public FragmentTask(ArrayTree tree, int limit, EnumerationBudget budget) {
+		this(tree, null, null, 1, tree.size(), true, true, limit, budget);
+	}
+
+	/**
+	 * Task for the fragments grown from the roots from node from
+	 * (inclusive) to node to (exclusive), or from a fragment extended with
+	 * the nodes from index from to index to
+	 * @param tree
+	 * @param base the fragment, or null for roots
+	 * @param extensions the nodes (null for roots)
+	 * @param from
+	 * @param to
+	 * @param isGold
+	 * @param matchedOnly
+	 * @param limit
+	 * @param budget
+	 */
+	private FragmentTask(ArrayTree tree, Fragment base, int[] extensions,
+			int from, int to, boolean isGold, boolean matchedOnly, int limit, 
+			EnumerationBudget budget) {
+		this.tree = tree;
+		this.base = base;
+		this.extensions = extensions;
+		this.from = from;
+		this.to = to;
+		this.isGold = isGold;
+		this.matchedOnly = matchedOnly;
+		this.limit = limit;
+		this.budget = budget;
+	}
+
+	@Override
+	protected DefaultEvaluationInfo compute() {
+
+		// split the range in halves
+		if (to - from > 1) {
+			int middle = (from + to) >>> 1;
+			FragmentTask left = new FragmentTask(tree, base, extensions, 
+					from, middle, isGold, matchedOnly, limit, budget);
+			FragmentTask right = new FragmentTask(tree, base, extensions, 
+					middle, to, isGold, matchedOnly, limit, budget);
+			left.fork();
+			DefaultEvaluationInfo counts = right.compute();
+			counts.addCounts(left.join());
+			return counts;
+		}
+
+		// the tree ID and length are not used, we only count
+		DefaultEvaluationInfo counts = new DefaultEvaluationInfo(0, 0);
+
+		if (to - from == 0 || (budget != null && budget.isExceeded())) {
+			return counts;
+		}
+
+		Fragment f;
+		if (base == null) {
+			if (matchedOnly && !tree.matches(from)) {
+				return counts;
+			}
+			f = new Fragment(tree.size());
+			f.add(from, tree.getDepth(from), tree.matches(from));
+		} else {
+			int c = extensions[from];
+			f = base.extend(c, tree.getDepth(c), tree.matches(c));
+		}
+
+		// large fragment, continue on this thread
+		if (f.size() >= SPLIT_SIZE) {
+			Evaluator.calculate(new FragmentGenerator(tree, limit, f, 
+					matchedOnly), counts, isGold, budget);
+			return counts;
+		}
+
+		// count the fragment itself
+		int size = f.size();
+		if (isGold) {
+			if (!matchedOnly) {
+				counts.incrementGold(size);
+			}
+			if (f.matches()) {
+				counts.incrementMatched(size);
+			}
+		} else {
+			counts.incrementTest(size);
+		}
+		if (budget != null && !budget.spend(1)) {
+			return counts;
+		}
+
+		// and split its extensions over the pool
+		if (limit == 0 || limit != size) {
+			int[] nodes = FragmentGenerator.extensions(tree, f, matchedOnly);
+			counts.addCounts(new FragmentTask(tree, f, nodes, 0, 
+					nodes.length, isGold, matchedOnly, limit, budget)
+					.compute());
+		}
+
+		return counts;
+	}
+
+}
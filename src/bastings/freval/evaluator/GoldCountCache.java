@@ -0,0 +1,370 @@
+package bastings.freval.evaluator;
+
+import java.io.*;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import bastings.freval.util.*;
+
+/**
+ * Remembers the gold fragment counts of sentences across runs, in a file
+ * next to the treebank (-DgoldCountCache=file, @see {@link Evaluator})
+ *
+ * The gold counts of a sentence do not depend on the test tree, so when
+ * the same gold treebank is evaluated against many test files, the
+ * enumeration of a sentence seen before only has to generate the matched
+ * gold fragments (@see {@link FragmentGenerator}) and the test fragments.
+ *
+ * The gold counts only depend on the shape of the gold tree as evaluated
+ * (the number of children of every node, in pre-order) and the
+ * fragment-size limit. So a sentence is looked up by a hash of that
+ * shape, after the normalization, not by its line: the settings that
+ * change the normalization (e.g. the delete labels) change the shape, and
+ * so does a quote that {@link TreeFunctions#fixQuotes(Node, Node)}
+ * restores for one test tree but not for another. The shape is stored
+ * with the counts, so a hash collision is never mistaken for a hit.
+ *
+ * The file has the magic number {@link #MAGIC}, the format
+ * {@link #VERSION} and the fragment-size limit, followed by the entries:
+ * the shape (the number of nodes and their numbers of children) and the
+ * gold counts by size (longs, or the bytes of BigIntegers if one does not
+ * fit in a long). A file for another limit is not used, and replaced.
+ *
+ * A cache can be shared by several threads.
+ */
+public class GoldCountCache {
+
+	/**
+	 * "FRVG"
+	 */
+	public static final int MAGIC = 0x46525647;
+	public static final int VERSION = 1;
+
+	/**
+	 * The gold counts of a tree shape
+	 */
+	private static class Entry {
+
+		/**
+		 * The number of children of every node, in pre-order
+		 */
+		final int[] shape;
+
+		/**
+		 * The counts by size (size 1 at index 0), exact if a count
+		 * does not fit in a long (then counts is null)
+		 */
+		final long[] counts;
+		final BigInteger[] exact;
+
+		Entry(int[] shape, long[] counts, BigInteger[] exact) {
+			this.shape = shape;
+			this.counts = counts;
+			this.exact = exact;
+		}
+
+		/**
+		 * @return the number of sizes with a count
+		 */
+		int size() {
+			return counts != null ? counts.length : exact.length;
+		}
+	}
+
+	private final String filename;
+	private final int limit;
+	private final Map<Long, Entry> entries = new HashMap<Long, Entry>();
+
+	/**
+	 * True if entries were added since the file was read
+	 */
+	private boolean changed = false;
+
+	private long hits = 0;
+	private long misses = 0;
+
+	/**
+	 * Creates an empty cache
+	 * @param filename the file it is saved to
+	 * @param limit the largest fragment size that is counted, 0 for no limit
+	 */
+	public GoldCountCache(String filename, int limit) {
+		this.filename = filename;
+		this.limit = limit;
+	}
+
+	/**
+	 * Reads the cache from a file, if there is one for the limit
+	 * If the file cannot be read a warning is printed, and the
+	 * cache starts empty
+	 * @param filename
+	 * @param limit the largest fragment size that is counted, 0 for no limit
+	 * @return cache
+	 */
+	public static GoldCountCache open(String filename, int limit) {
+
+		GoldCountCache cache = new GoldCountCache(filename, limit);
+		if (!new File(filename).isFile()) {
+			return cache;
+		}
+
+		try {
+			cache.read();
+		} catch (IOException e) {
+			System.err.println(String.format(
+					"Warning: gold count cache not read from %s (%s)",
+					filename, e.getMessage()));
+			cache.entries.clear();
+		}
+
+		return cache;
+	}
+
+	/**
+	 * @return the largest fragment size that is counted, 0 for no limit
+	 */
+	public int getLimit() {
+		return limit;
+	}
+
+	/**
+	 * Adds the gold counts of a tree to an evaluation result
+	 * @param tree gold tree, as evaluated
+	 * @param evalInfo
+	 * @return false if the tree is not in the cache (nothing is added)
+	 */
+	public boolean addGold(ArrayTree tree, DefaultEvaluationInfo evalInfo) {
+
+		int[] shape = getShape(tree);
+		Entry entry;
+		synchronized (this) {
+			entry = entries.get(hash(shape));
+			if (entry == null || !Arrays.equals(entry.shape, shape)) {
+				misses++;
+				return false;
+			}
+			hits++;
+		}
+
+		// in increasing size like the enumeration does
+		for (int k = 1; k <= entry.size(); k++) {
+			if (entry.counts != null) {
+				evalInfo.addGold(k, entry.counts[k - 1]);
+			} else {
+				evalInfo.addGold(k, entry.exact[k - 1]);
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Adds the gold counts of a tree
+	 * (a different tree with the same hash keeps its counts)
+	 * @param tree gold tree, as evaluated
+	 * @param counts the counts, of which only the gold counts are used
+	 */
+	public void put(ArrayTree tree, FragmentCounts counts) {
+
+		int[] shape = getShape(tree);
+
+		// up to the largest size that has gold fragments
+		int size = counts.size();
+		while (size > 0 &&
+				counts.get(FragmentCounts.GOLD, size).signum() == 0) {
+			size--;
+		}
+
+		long[] gold = new long[size];
+		BigInteger[] exact = null;
+		for (int k = 1; k <= size; k++) {
+			Number count = counts.getNumber(FragmentCounts.GOLD, k);
+			if (count instanceof BigInteger) {
+				exact = new BigInteger[size];
+				for (int j = 1; j <= size; j++) {
+					exact[j - 1] = counts.get(FragmentCounts.GOLD, j);
+				}
+				gold = null;
+				break;
+			}
+			gold[k - 1] = count.longValue();
+		}
+
+		synchronized (this) {
+			Long hash = hash(shape);
+			if (!entries.containsKey(hash)) {
+				entries.put(hash, new Entry(shape, gold, exact));
+				changed = true;
+			}
+		}
+	}
+
+	/**
+	 * Writes the cache to its file, if entries were added
+	 * (to a temporary file first, that replaces the file at once)
+	 * @throws IOException
+	 */
+	public synchronized void save() throws IOException {
+
+		if (!changed) {
+			return;
+		}
+
+		// (a temporary file name needs a prefix of 3 characters or more)
+		File file = new File(filename).getAbsoluteFile();
+		File temp = File.createTempFile(file.getName() + ".new", ".tmp",
+				file.getParentFile());
+
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+					new FileOutputStream(temp), 1 << 16));
+			try {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeInt(limit);
+				out.writeInt(entries.size());
+
+				for (Entry entry : entries.values()) {
+
+					out.writeInt(entry.shape.length);
+					for (int children : entry.shape) {
+						out.writeInt(children);
+					}
+
+					out.writeInt(entry.size());
+					out.writeBoolean(entry.counts == null);
+					for (int i = 0; i < entry.size(); i++) {
+						if (entry.counts != null) {
+							out.writeLong(entry.counts[i]);
+						} else {
+							byte[] bytes = entry.exact[i].toByteArray();
+							out.writeInt(bytes.length);
+							out.write(bytes);
+						}
+					}
+				}
+			} finally {
+				out.close();
+			}
+
+			Files.move(temp.toPath(), file.toPath(),
+					StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+			changed = false;
+
+		} finally {
+			temp.delete();
+		}
+	}
+
+	/**
+	 * Reads the entries from the file
+	 * @throws IOException if the file is not a gold count cache
+	 */
+	private void read() throws IOException {
+
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(filename), 1 << 16));
+		try {
+			if (in.readInt() != MAGIC) {
+				throw new IOException("not a gold count cache");
+			}
+			int version = in.readInt();
+			if (version != VERSION) {
+				throw new IOException("unknown version " + version);
+			}
+
+			int fileLimit = in.readInt();
+			if (fileLimit != limit) {
+				// written for another limit, start again
+				changed = true;
+				return;
+			}
+
+			int count = in.readInt();
+			for (int e = 0; e < count; e++) {
+
+				int[] shape = new int[in.readInt()];
+				for (int i = 0; i < shape.length; i++) {
+					shape[i] = in.readInt();
+				}
+
+				int size = in.readInt();
+				long[] counts = null;
+				BigInteger[] exact = null;
+				if (in.readBoolean()) {
+					exact = new BigInteger[size];
+					for (int i = 0; i < size; i++) {
+						byte[] bytes = new byte[in.readInt()];
+						in.readFully(bytes);
+						exact[i] = new BigInteger(bytes);
+					}
+				} else {
+					counts = new long[size];
+					for (int i = 0; i < size; i++) {
+						counts[i] = in.readLong();
+					}
+				}
+
+				entries.put(hash(shape), new Entry(shape, counts, exact));
+			}
+
+		} catch (EOFException e) {
+			throw new IOException("incomplete file");
+		} catch (NegativeArraySizeException e) {
+			throw new IOException("damaged file");
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * @return the number of children of every node, in pre-order
+	 */
+	private static int[] getShape(ArrayTree tree) {
+
+		int[] shape = new int[tree.size()];
+		for (int node = 1; node < tree.size(); node++) {
+			shape[tree.getParent(node)]++;
+		}
+
+		return shape;
+	}
+
+	/**
+	 * @return hash of a shape
+	 */
+	private static long hash(int[] shape) {
+		long h = shape.length;
+		for (int children : shape) {
+			h = FragmentCounter.mix(h * 0x9E3779B97F4A7C15L + children);
+		}
+		return h;
+	}
+
+	/**
+	 * @return number of sentences found in the cache
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * @return number of sentences looked up but not found
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * @return number of tree shapes in the cache
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+}
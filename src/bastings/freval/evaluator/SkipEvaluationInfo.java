@@ -20,6 +20,13 @@ public class SkipEvaluationInfo extends EvaluationInfo {
 		//this.setSkipped(true);
 	}
 	
+	/**
+	 * @return the status printed for this result
+	 */
+	public String getStatus() {
+		return "Skip";
+	}
+
 	/**
 	 * Prints this info
 	 */
@@ -29,7 +36,7 @@ public class SkipEvaluationInfo extends EvaluationInfo {
 					"%6.2f    %6.2f    %8d    %8d    %8d    " +
 					"%4d    %4d    %4d    %6.2f    %6s\n", 
 					this.getTreeID(), this.getSentenceLength(), 1,
-					0.0, 0.0, 0, 0, 0, 0, 0, 0, 0.0, "Skip");
+					0.0, 0.0, 0, 0, 0, 0, 0, 0, 0.0, getStatus());
 	}	
 	
 }
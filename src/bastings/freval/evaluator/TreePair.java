@@ -0,0 +1,121 @@
+package bastings.freval.evaluator;
+
+import bastings.freval.util.*;
+
+/**
+ * A gold and test tree, normalized for evaluation by
+ * {@link Evaluator#prepare(Node, Node)}
+ *
+ * If the trees can be evaluated, the pair holds the {@link ArrayTree}s
+ * (with the match flags set) and the counts that are taken from the trees
+ * before they are reduced to the evaluated nodes. Otherwise it holds
+ * the result of the evaluation, a {@link SkipEvaluationInfo} or an
+ * {@link ErrorEvaluationInfo}.
+ *
+ * (Inside the evaluator a pair of which only the words were checked
+ * has no trees and no correct tags yet.)
+ */
+public class TreePair {
+
+	private final int treeID;
+	private final int sentenceLength;
+
+	private final ArrayTree gold;
+	private final ArrayTree test;
+	private final int goldWordCount;
+	private final int correctTag;
+
+	private final EvaluationInfo failure;
+
+	/**
+	 * Pair that can be evaluated
+	 * @param treeID
+	 * @param sentenceLength
+	 * @param gold
+	 * @param test
+	 * @param goldWordCount
+	 * @param correctTag
+	 */
+	TreePair(int treeID, int sentenceLength, ArrayTree gold, ArrayTree test,
+			int goldWordCount, int correctTag) {
+		this.treeID = treeID;
+		this.sentenceLength = sentenceLength;
+		this.gold = gold;
+		this.test = test;
+		this.goldWordCount = goldWordCount;
+		this.correctTag = correctTag;
+		this.failure = null;
+	}
+
+	/**
+	 * Pair that cannot be evaluated
+	 * @param failure the skip or error result
+	 */
+	TreePair(EvaluationInfo failure) {
+		this.treeID = failure.getTreeID();
+		this.sentenceLength = failure.getSentenceLength();
+		this.gold = null;
+		this.test = null;
+		this.goldWordCount = 0;
+		this.correctTag = 0;
+		this.failure = failure;
+	}
+
+	/**
+	 * @return true if the trees can be evaluated
+	 */
+	public boolean isEvaluable() {
+		return failure == null;
+	}
+
+	/**
+	 * @return the skip or error result if the trees cannot be evaluated,
+	 * null otherwise
+	 */
+	public EvaluationInfo getFailure() {
+		return failure;
+	}
+
+	/**
+	 * @return the ID of the trees ("sentence number")
+	 */
+	public int getTreeID() {
+		return treeID;
+	}
+
+	/**
+	 * @return the official sentence length
+	 */
+	public int getSentenceLength() {
+		return sentenceLength;
+	}
+
+	/**
+	 * @return the gold tree as evaluated (null if not evaluable)
+	 */
+	public ArrayTree getGold() {
+		return gold;
+	}
+
+	/**
+	 * @return the test tree as evaluated (null if not evaluable)
+	 */
+	public ArrayTree getTest() {
+		return test;
+	}
+
+	/**
+	 * @return the number of words in the gold tree that are not deleted
+	 */
+	public int getGoldWordCount() {
+		return goldWordCount;
+	}
+
+	/**
+	 * @return the number of correct tags
+	 */
+	public int getCorrectTag() {
+		return correctTag;
+	}
+
+}
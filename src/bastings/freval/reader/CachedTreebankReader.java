@@ -0,0 +1,515 @@
+package bastings.freval.reader;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import bastings.freval.EvaluationConfig;
+import bastings.freval.Settings;
+import bastings.freval.util.*;
+
+/**
+ * Reads the trees of a treebank from a binary cache (-DgoldCache=dir),
+ * already parsed and with their delete and quote nodes identified
+ * (@see {@link TreeFunctions#identifyDeleteAndQuoteNodes(Node,
+ * EvaluationConfig)}), so a gold treebank that is evaluated against many
+ * test files is only parsed and normalized once
+ *
+ * The cache is written the first time the treebank is read with the
+ * settings, and memory-mapped afterwards. It knows the size and the
+ * checksum of the treebank file and a checksum of the settings that the
+ * normalization depends on (the delete labels, the delete labels for
+ * length, the quote labels, adjustLabels and the charset), if any of
+ * them differ the cache is written again. Every cached tree is marked as
+ * identified, with its official sentence length.
+ *
+ * The file has a header ({@link #MAGIC}, {@link #VERSION}, the size and
+ * checksum of the treebank and the settings checksum), a record per line
+ * and the labels and words, after the records. A tree record has the
+ * sentence length, the number of nodes, and for every node in pre-order
+ * (the root first) its symbol, its number of children and its flags
+ * (terminal, deleted, quote). A line that could not be parsed has an
+ * error record with the message. The records end at the first empty
+ * line, as the trees of a {@link PennReader} do. The last 8 bytes of the
+ * file are the offset of the symbols.
+ */
+public class CachedTreebankReader implements TreeReader {
+
+	/**
+	 * "FRVT"
+	 */
+	public static final int MAGIC = 0x46525654;
+	public static final int VERSION = 1;
+
+	private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 8;
+
+	/**
+	 * Record kinds
+	 */
+	private static final byte END = 0;
+	private static final byte TREE = 1;
+	private static final byte ERROR = 2;
+
+	/**
+	 * Node flags
+	 */
+	private static final byte TERMINAL = 1;
+	private static final byte DELETED = 2;
+	private static final byte QUOTE = 4;
+
+	private final ByteBuffer records;
+
+	/**
+	 * Symbol IDs of the cached symbols, and the symbols themselves
+	 * (interned in {@link Settings#symbols})
+	 */
+	private final int[] symbolIDs;
+	private final String[] symbols;
+
+	/**
+	 * Nodes on the path to the node being built, and the number of
+	 * children each of them still gets
+	 */
+	private Node<NodeInfo>[] stack = Node.newArray(64);
+	private int[] remaining = new int[64];
+
+	private int line = 0;
+	private boolean ended = false;
+
+	/**
+	 * The reader gets a name so messages that it prints
+	 * make more sense (i.e. it knows if it is a 'Gold' reader
+	 * or a 'Test' reader.
+	 */
+	private String name;
+
+	/**
+	 * Maps a cache file that is known to be valid
+	 * @param cache
+	 * @param readerName
+	 * @throws IOException if the file could not be mapped
+	 */
+	private CachedTreebankReader(File cache, String readerName)
+	throws IOException {
+
+		name = readerName;
+
+		RandomAccessFile file = new RandomAccessFile(cache, "r");
+		MappedByteBuffer map;
+		try {
+			long size = file.length();
+			if (size > Integer.MAX_VALUE) {
+				throw new IOException("Treebank cache too large: " + cache);
+			}
+			map = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, size);
+		} finally {
+			// the mapping stays valid
+			file.close();
+		}
+
+		try {
+			int symbolsOffset = (int) map.getLong(map.limit() - 8);
+			ByteBuffer table = map.duplicate();
+			table.position(symbolsOffset);
+			int count = table.getInt();
+			symbolIDs = new int[count];
+			symbols = new String[count];
+			SymbolTable symbolTable = Settings.symbols;
+			for (int i = 0; i < count; i++) {
+				byte[] bytes = new byte[table.getInt()];
+				table.get(bytes);
+				symbolIDs[i] = symbolTable.getID(
+						new String(bytes, StandardCharsets.UTF_8));
+				symbols[i] = symbolTable.getSymbol(symbolIDs[i]);
+			}
+
+			map.position(HEADER_SIZE);
+			map.limit(symbolsOffset);
+			records = map.slice();
+
+		} catch (RuntimeException e) {
+			throw new IOException("Damaged treebank cache: " + cache);
+		}
+	}
+
+	/**
+	 * Opens a reader of the treebank with the specified filePath, from its
+	 * cache in cacheDir, the cache is written first if it does not exist
+	 * or is not valid for the file and the settings
+	 * If the cache cannot be used a warning is printed
+	 * @param filePath
+	 * @param readerName
+	 * @param cacheDir directory of the cache files
+	 * @param config the settings
+	 * @return reader, or null if the cache cannot be used
+	 * @throws FileNotFoundException if the treebank file does not exist
+	 */
+	public static TreeReader open(String filePath, String readerName,
+			String cacheDir, EvaluationConfig config)
+	throws FileNotFoundException {
+
+		File source = new File(filePath);
+		if (!source.isFile()) {
+			throw new FileNotFoundException(filePath);
+		}
+
+		try {
+			long settings = getSettingsChecksum(config);
+			File cache = getCacheFile(source, new File(cacheDir), settings);
+			long size = source.length();
+			long checksum = getChecksum(source);
+
+			if (!isValid(cache, size, checksum, settings)) {
+				if (Settings.debug > 0) {
+					System.err.println(readerName +
+							": Writing treebank cache " + cache);
+				}
+				write(source, cache, size, checksum, settings, config);
+			}
+
+			return new CachedTreebankReader(cache, readerName);
+
+		} catch (IOException e) {
+			System.err.println(String.format(
+					"Warning: treebank cache not used for %s (%s)",
+					filePath, e.getMessage()));
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the cached tree of the next line
+	 * @return Graph representing the tree, identified
+	 * @throws IOException if the line could not be parsed
+	 */
+	public Node<NodeInfo> nextTree() throws IOException {
+
+		line++; // starts at 0, so first line is 1
+
+		byte kind = nextRecord();
+		if (kind == END) {
+			return null;
+		}
+
+		if (Settings.debug > 1) {
+			System.err.println(name + ": Reading line "+line);
+		}
+
+		if (kind == ERROR) {
+			throw new IOException(readString());
+		}
+
+		int sentenceLength = records.getInt();
+		int nodeCount = records.getInt();
+		Node<NodeInfo> tree = build(nodeCount);
+		tree.getUserObject().setTreeID(line);
+		tree.getUserObject().setSentenceLength(sentenceLength);
+		return tree;
+	}
+
+	/**
+	 * Skips the record of the next line
+	 * @return false if there are no more trees
+	 */
+	public boolean skipTree() {
+
+		line++;
+
+		byte kind = nextRecord();
+		if (kind == ERROR) {
+			readString();
+		} else if (kind == TREE) {
+			records.getInt();
+			int nodeCount = records.getInt();
+			records.position(records.position() + 9 * nodeCount);
+		}
+
+		return kind != END;
+	}
+
+	/**
+	 * The file was closed when it was mapped, and the mapping is
+	 * released when it is collected, so there is nothing left to close
+	 */
+	public void close() {
+		ended = true;
+	}
+
+	/**
+	 * @return the kind of the next record, END after the last one
+	 */
+	private byte nextRecord() {
+		if (ended) {
+			return END;
+		}
+		byte kind = records.get();
+		ended = (kind == END);
+		return kind;
+	}
+
+	/**
+	 * Builds the tree of a record from its flattened nodes
+	 * (the symbols, then the numbers of children, then the flags)
+	 * @param nodeCount number of nodes, with the root
+	 * @return the root
+	 */
+	private Node<NodeInfo> build(int nodeCount) {
+
+		int symbolStart = records.position();
+		int childStart = symbolStart + 4 * nodeCount;
+		int flagStart = childStart + 4 * nodeCount;
+
+		Node<NodeInfo> tree = null;
+		int depth = 0;
+		int wordID = 0;
+
+		for (int i = 0; i < nodeCount; i++) {
+
+			int symbol = records.getInt(symbolStart + 4 * i);
+			byte flags = records.get(flagStart + i);
+
+			NodeInfo info = new NodeInfo(symbols[symbol], symbolIDs[symbol],
+					(flags & TERMINAL) != 0);
+			info.setDeleted((flags & DELETED) != 0);
+			info.setQuote((flags & QUOTE) != 0);
+			Node<NodeInfo> node = new Node<NodeInfo>(info);
+
+			// the root is not numbered, like a parsed root
+			if (i > 0) {
+				info.setNodeID(i - 1);
+				if (info.isTerminal()) {
+					info.setWordID(wordID);
+					wordID++;
+				}
+				stack[depth - 1].add(node);
+				remaining[depth - 1]--;
+			} else {
+				tree = node;
+			}
+
+			if (depth == stack.length) {
+				stack = Arrays.copyOf(stack, 2 * depth);
+				remaining = Arrays.copyOf(remaining, 2 * depth);
+			}
+			stack[depth] = node;
+			remaining[depth] = records.getInt(childStart + 4 * i);
+			depth++;
+
+			// done with the nodes that got all their children
+			while (depth > 0 && remaining[depth - 1] == 0) {
+				stack[--depth] = null;
+			}
+		}
+
+		records.position(flagStart + nodeCount);
+		return tree;
+	}
+
+	/**
+	 * Reads a string (its length in bytes and its UTF-8 bytes)
+	 */
+	private String readString() {
+		byte[] bytes = new byte[records.getInt()];
+		records.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Tells if a cache file is valid for the treebank and the settings
+	 * @param cache
+	 * @param size size of the treebank file
+	 * @param checksum of the treebank file
+	 * @param settings checksum of the settings
+	 * @return false if there is no such cache, or it is not valid
+	 * @throws IOException if the cache could not be read
+	 */
+	private static boolean isValid(File cache, long size, long checksum,
+			long settings) throws IOException {
+
+		if (!cache.isFile() || cache.length() < HEADER_SIZE + 1 + 4 + 8) {
+			return false;
+		}
+
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(cache), HEADER_SIZE));
+		try {
+			return in.readInt() == MAGIC && in.readInt() == VERSION &&
+				in.readLong() == size && in.readLong() == checksum &&
+				in.readLong() == settings;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Parses and identifies all trees of the treebank and writes the cache
+	 * (to a temporary file first, that replaces the cache at once, so
+	 * readers never see half a cache)
+	 * @throws IOException
+	 */
+	private static void write(File source, File cache, long size,
+			long checksum, long settings, EvaluationConfig config)
+	throws IOException {
+
+		File dir = cache.getAbsoluteFile().getParentFile();
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Can not create " + dir);
+		}
+		File temp = File.createTempFile(cache.getName(), ".tmp", dir);
+
+		try {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(
+					new FileInputStream(source)), 1 << 16);
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+					new FileOutputStream(temp), 1 << 16));
+
+			try {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeLong(size);
+				out.writeLong(checksum);
+				out.writeLong(settings);
+
+				PennParser parser = new PennParser();
+				Map<String, Integer> symbols = new HashMap<String, Integer>();
+				List<String> symbolList = new ArrayList<String>();
+				List<Node<NodeInfo>> nodes = new ArrayList<Node<NodeInfo>>();
+
+				String line;
+				while ((line = reader.readLine()) != null && line.length() > 0) {
+
+					char[] chars = line.toCharArray();
+					Node<NodeInfo> tree;
+					try {
+						tree = parser.parse(chars, 0, chars.length);
+					} catch (IOException e) {
+						out.writeByte(ERROR);
+						writeString(out, e.getMessage());
+						continue;
+					}
+
+					int sentenceLength =
+						TreeFunctions.getOfficialSentenceLength(tree, config);
+					TreeFunctions.identifyDeleteAndQuoteNodes(tree, config);
+
+					nodes.clear();
+					Enumeration<Node<NodeInfo>> en = tree.preorderEnumeration();
+					while (en.hasMoreElements()) {
+						nodes.add(en.nextElement());
+					}
+
+					out.writeByte(TREE);
+					out.writeInt(sentenceLength);
+					out.writeInt(nodes.size());
+					for (Node<NodeInfo> node : nodes) {
+						String symbol = node.getUserObject().getName();
+						Integer index = symbols.get(symbol);
+						if (index == null) {
+							index = symbolList.size();
+							symbols.put(symbol, index);
+							symbolList.add(symbol);
+						}
+						out.writeInt(index);
+					}
+					for (Node<NodeInfo> node : nodes) {
+						out.writeInt(node.getChildCount());
+					}
+					for (Node<NodeInfo> node : nodes) {
+						NodeInfo info = node.getUserObject();
+						out.writeByte((info.isTerminal() ? TERMINAL : 0) |
+								(info.isDeleted() ? DELETED : 0) |
+								(info.isQuote() ? QUOTE : 0));
+					}
+				}
+				out.writeByte(END);
+
+				// (the cache is mapped at once, so it is smaller than 2 GB)
+				long symbolsOffset = out.size();
+				out.writeInt(symbolList.size());
+				for (String symbol : symbolList) {
+					writeString(out, symbol);
+				}
+				out.writeLong(symbolsOffset);
+
+			} finally {
+				reader.close();
+				out.close();
+			}
+
+			Files.move(temp.toPath(), cache.toPath(),
+					StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+
+		} finally {
+			temp.delete();
+		}
+	}
+
+	/**
+	 * Writes a string (its length in bytes and its UTF-8 bytes)
+	 */
+	private static void writeString(DataOutputStream out, String s)
+	throws IOException {
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * Returns the cache file of a treebank file: its name, a hash of its
+	 * path and the settings checksum (so caches of treebanks with the
+	 * same name, or for other settings, are kept apart)
+	 */
+	private static File getCacheFile(File source, File cacheDir,
+			long settings) throws IOException {
+		CRC32 crc = new CRC32();
+		crc.update(source.getCanonicalPath().getBytes(StandardCharsets.UTF_8));
+		return new File(cacheDir, String.format("%s.%08x.%08x.frt",
+				source.getName(), crc.getValue(), settings));
+	}
+
+	/**
+	 * @return the checksum (CRC32) of the contents of a file
+	 * @throws IOException
+	 */
+	private static long getChecksum(File file) throws IOException {
+
+		CRC32 crc = new CRC32();
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = in.getChannel();
+			long size = channel.size();
+			for (long offset = 0; offset < size; offset += Integer.MAX_VALUE) {
+				crc.update(channel.map(FileChannel.MapMode.READ_ONLY, offset,
+						Math.min(Integer.MAX_VALUE, size - offset)));
+			}
+		} finally {
+			in.close();
+		}
+		return crc.getValue();
+	}
+
+	/**
+	 * @return the checksum (CRC32) of the settings that the parsed and
+	 * identified trees depend on, and of the charset they are read with
+	 */
+	private static long getSettingsChecksum(EvaluationConfig config) {
+		CRC32 crc = new CRC32();
+		crc.update(String.format("%x %s", config.getNormalizationChecksum(),
+				Charset.defaultCharset().name()).getBytes(StandardCharsets.UTF_8));
+		return crc.getValue();
+	}
+
+}
@@ -0,0 +1,332 @@
+package bastings.freval.reader;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.*;
+
+import bastings.freval.Settings;
+import bastings.freval.util.*;
+
+/**
+ * Reads trees in Penn-format from a memory-mapped treebank file
+ * and parses them on a pool of threads
+ *
+ * The file is split into chunks of whole lines (a chunk always ends
+ * after a line ending, or at the end of the file). Every chunk is decoded
+ * and parsed on one of the threads (with a {@link PennParser} per thread),
+ * while the trees are handed out in the order of the lines. So the result
+ * is the same as that of a {@link PennReader}: the tree ID is the line
+ * number, an empty line returns null and a line that could not be parsed
+ * throws its IOException when it is its turn.
+ *
+ * Only a few chunks are parsed ahead, so the memory use does not depend
+ * on the size of the file.
+ *
+ * <b>Note: debug output of the parser (debug level 5) may be out of
+ * order</b>
+ */
+public class MappedTreebankReader implements TreeReader {
+
+	/**
+	 * Size of a chunk, it grows if a single line is longer
+	 * (the trees of a chunk stay in memory until they are handed out,
+	 * so larger chunks mostly mean more garbage collection)
+	 */
+	private static final int CHUNK_SIZE = 64 << 10;
+
+	private FileChannel channel;
+	private long fileSize;
+
+	/**
+	 * Position in the file where the next chunk starts
+	 */
+	private long offset = 0;
+
+	private Charset charset = Charset.defaultCharset();
+
+	/**
+	 * Parses the chunks, and the chunks being parsed (in file order)
+	 */
+	private ExecutorService parsers;
+	private ThreadLocal<PennParser> parser = new ThreadLocal<PennParser>() {
+		@Override
+		protected PennParser initialValue() {
+			return new PennParser();
+		}
+	};
+	private ArrayDeque<Future<Chunk>> chunks = new ArrayDeque<Future<Chunk>>();
+	private int chunksAhead;
+
+	/**
+	 * The chunk we are handing out trees from
+	 */
+	private Chunk current;
+	private int currentLine = 0;
+
+	private int line = 0;
+
+	/**
+	 * The reader gets a name so messages that it prints
+	 * make more sense (i.e. it knows if it is a 'Gold' reader
+	 * or a 'Test' reader.
+	 */
+	private String name;
+
+	/**
+	 * Maps the file with the specified filePath
+	 * @param filePath
+	 * @param readerName
+	 * @param threads number of threads that parse chunks
+	 * @throws FileNotFoundException if the file does not exist
+	 * @throws IOException if the size of the file cannot be read
+	 */
+	public MappedTreebankReader(String filePath, String readerName,
+			int threads) throws IOException {
+
+		channel = new RandomAccessFile(new File(filePath), "r").getChannel();
+		fileSize = channel.size();
+		name = readerName;
+
+		chunksAhead = 2 * threads;
+		parsers = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "freval-parser-" + name);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Stops the parser threads and closes the file
+	 * (the chunks that were mapped stay valid until they are collected)
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		parsers.shutdownNow();
+		chunks.clear();
+		current = null;
+		channel.close();
+	}
+
+	/**
+	 * Returns the tree of the next line in the file
+	 * @return Graph representing the tree
+	 * @throws IOException if the line could not be parsed
+	 */
+	public Node<NodeInfo> nextTree() throws IOException {
+
+		line++; // starts at 0, so first line is 1
+
+		while (current == null || currentLine == current.lines) {
+			if (!nextChunk()) {
+				return null;
+			}
+		}
+
+		int i = currentLine++;
+
+		// we assume we are done if we encounter an empty line
+		if (current.trees[i] == null && current.errors[i] == null) {
+			return null;
+		}
+
+		if (Settings.debug > 1) {
+			System.err.println(name + ": Reading line "+line);
+		}
+
+		if (current.errors[i] != null) {
+			throw current.errors[i];
+		}
+
+		Node<NodeInfo> tree = current.trees[i];
+		current.trees[i] = null; // let it go when it is evaluated
+		tree.getUserObject().setTreeID(line);
+		return tree;
+	}
+
+	/**
+	 * Skips the next line in the file (its tree or error is dropped)
+	 * @return false if there are no more trees
+	 * @throws IOException if the file could not be mapped or decoded
+	 */
+	public boolean skipTree() throws IOException {
+
+		line++;
+
+		while (current == null || currentLine == current.lines) {
+			if (!nextChunk()) {
+				return false;
+			}
+		}
+
+		int i = currentLine++;
+
+		if (current.trees[i] == null && current.errors[i] == null) {
+			return false;
+		}
+
+		current.trees[i] = null;
+		current.errors[i] = null;
+		return true;
+	}
+
+	/**
+	 * Waits for the next chunk to be parsed, and starts parsing
+	 * chunks after it
+	 * @return false if there are no more chunks
+	 * @throws IOException if the file could not be mapped or decoded
+	 */
+	private boolean nextChunk() throws IOException {
+
+		while (chunks.size() < chunksAhead && offset < fileSize) {
+			chunks.add(parsers.submit(mapChunk()));
+		}
+
+		Future<Chunk> next = chunks.poll();
+		if (next == null) {
+			current = null;
+			return false;
+		}
+
+		try {
+			current = next.get();
+			currentLine = 0;
+			return true;
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException(e.getMessage());
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			} else if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		}
+	}
+
+	/**
+	 * Maps the next chunk of whole lines, starting at the offset
+	 * @return task that parses the chunk
+	 * @throws IOException
+	 */
+	private Callable<Chunk> mapChunk() throws IOException {
+
+		long size = Math.min(CHUNK_SIZE, fileSize - offset);
+
+		while (true) {
+
+			final MappedByteBuffer map =
+				channel.map(FileChannel.MapMode.READ_ONLY, offset, size);
+			int end = (int) size;
+
+			// end the chunk after its last line ending, unless it
+			// is the last chunk of the file
+			if (offset + size < fileSize) {
+				while (end > 0 && map.get(end - 1) != '\n') {
+					end--;
+				}
+				if (end == 0) {
+					// no line ending at all, try a larger chunk
+					if (size > Integer.MAX_VALUE / 2) {
+						throw new IOException(name +
+								": line too long after offset " + offset);
+					}
+					size = Math.min(2 * size, fileSize - offset);
+					continue;
+				}
+			}
+
+			map.limit(end);
+			offset += end;
+
+			return new Callable<Chunk>() {
+				public Chunk call() throws IOException {
+					return parse(map);
+				}
+			};
+		}
+	}
+
+	/**
+	 * Decodes the bytes of a chunk and parses its lines
+	 * A line ends with '\n', '\r' or "\r\n" (like
+	 * {@link BufferedReader#readLine()})
+	 * @param bytes
+	 * @return parsed chunk
+	 * @throws IOException if the bytes could not be decoded
+	 */
+	private Chunk parse(ByteBuffer bytes) throws IOException {
+
+		// replace bad input like an InputStreamReader does
+		CharBuffer decoded = charset.newDecoder()
+			.onMalformedInput(CodingErrorAction.REPLACE)
+			.onUnmappableCharacter(CodingErrorAction.REPLACE)
+			.decode(bytes);
+		char[] chars = decoded.array();
+		int from = decoded.arrayOffset() + decoded.position();
+		int to = decoded.arrayOffset() + decoded.limit();
+
+		PennParser parser = this.parser.get();
+		Chunk chunk = new Chunk();
+
+		int lineStart = from;
+		for (int i = from; i < to; i++) {
+			char c = chars[i];
+			if (c == '\n' || c == '\r') {
+				chunk.add(parser, chars, lineStart, i);
+				if (c == '\r' && i + 1 < to && chars[i + 1] == '\n') {
+					i++;
+				}
+				lineStart = i + 1;
+			}
+		}
+
+		// last line without line ending
+		if (lineStart < to) {
+			chunk.add(parser, chars, lineStart, to);
+		}
+
+		return chunk;
+	}
+
+	/**
+	 * The parsed lines of a chunk, for every line either the tree,
+	 * the error, or neither for an empty line
+	 */
+	private static class Chunk {
+
+		private Node<NodeInfo>[] trees = Node.newArray(256);
+		private IOException[] errors = new IOException[256];
+		private int lines = 0;
+
+		/**
+		 * Parses the line [from, to) and adds it to the chunk
+		 */
+		private void add(PennParser parser, char[] chars, int from, int to) {
+
+			if (lines == trees.length) {
+				trees = Arrays.copyOf(trees, 2 * lines);
+				errors = Arrays.copyOf(errors, 2 * lines);
+			}
+
+			if (from < to) {
+				try {
+					trees[lines] = parser.parse(chars, from, to);
+				} catch (IOException e) {
+					errors[lines] = e;
+				}
+			}
+
+			lines++;
+		}
+	}
+
+}
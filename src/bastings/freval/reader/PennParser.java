@@ -0,0 +1,274 @@
+package bastings.freval.reader;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import bastings.freval.Settings;
+import bastings.freval.util.*;
+
+/**
+ * Parses a single tree in Penn-format,
+ * e.g. <tt>(TOP (LABEL terminal) (LABEL terminal))</tt>
+ * from a range of a character buffer, without copying it
+ *
+ * Apart from the nodes themselves parsing a tree creates no objects.
+ * Labels and words are interned, so they are shared between all trees
+ * parsed by the same parser, together with their ID in
+ * {@link Settings#symbols}.
+ *
+ * A parser is not thread safe, use one parser per thread.
+ */
+public class PennParser {
+
+	/**
+	 * Nodes still being processed while parsing
+	 * e.g. they do not yet know where they end,
+	 * children are still being added
+	 */
+	private Node<NodeInfo>[] stack = Node.newArray(64);
+
+	/**
+	 * Label of our own root element, and its ID
+	 */
+	private static final String ROOT = "FREVALROOT";
+	private final int rootID = Settings.symbols.getID(ROOT);
+
+	/**
+	 * Labels and words seen so far (open addressing hash table),
+	 * so every symbol is only created and looked up once
+	 */
+	private String[] symbols = new String[256];
+	private int[] symbolIDs = new int[256];
+	private int symbolCount = 0;
+
+	/**
+	 * Parse a tree from the characters [from, to) of a buffer
+	 * @return Graph of the tree
+	 */
+	public Node<NodeInfo> parse(char[] chars, int from, int to)
+	throws IOException {
+
+		// the tree
+		Node<NodeInfo> tree = new Node<NodeInfo>(
+				new NodeInfo(ROOT, rootID, false));
+		stack[0] = tree;
+		int depth = 1;
+
+		int wordID = 0;
+		int nodeID = 0;
+
+		int i = from;
+
+		while (i < to) {
+
+			char c = chars[i];
+
+			// skip whitespace
+			if (Character.isWhitespace(c)) {
+				i++;
+				continue;
+			} else if (c == '(') { // open bracket
+
+				// the root was closed already
+				if (depth == 0) {
+					throw new IOException("Too many closing brackets!");
+				}
+
+				// collect label characters
+				int labelStart = ++i;
+				while (i < to && !Predicates.isTerminator(chars[i])) {
+					i++;
+				}
+				int labelEnd = i;
+
+				// find terminal */
+				if (i < to && Character.isWhitespace(chars[i])) {
+
+					// skip all further whitespace
+					do {
+						i++;
+					}
+					while(i < to && Character.isWhitespace(chars[i]));
+
+					// collect word characters
+					int wordStart = i;
+					while(i < to && !Predicates.isTerminator(chars[i])) {
+						i++;
+					}
+					int wordEnd = i;
+
+					// output debug level 2 info
+					if (Settings.debug > 4) {
+						System.err.println(
+								String.format("label=%s, word=%s, wid=%d",
+										new String(chars, labelStart,
+												labelEnd - labelStart),
+										new String(chars, wordStart,
+												wordEnd - wordStart),
+										wordID));
+					}
+
+					// pre-terminal and terminal
+					if (i < to && chars[i] == ')') {
+
+						// pre-terminal
+						int slot = symbol(chars, labelStart, labelEnd);
+						NodeInfo ni = new NodeInfo(
+								symbols[slot], symbolIDs[slot], false);
+						ni.setNodeID(nodeID);
+						nodeID++;
+						Node<NodeInfo> node = new Node<NodeInfo>(ni);
+
+						// terminal
+						slot = symbol(chars, wordStart, wordEnd);
+						NodeInfo tni = new NodeInfo(
+								symbols[slot], symbolIDs[slot], true);
+						tni.setNodeID(nodeID);
+						nodeID++;
+						tni.setWordID(wordID);
+						wordID++; // id for next terminal
+						Node<NodeInfo> terminal = new Node<NodeInfo>(tni);
+
+						// add terminal to node
+						node.add(terminal);
+
+						// add node to tree
+						stack[depth - 1].add(node);
+
+						i++;
+						continue;
+					} else if (i == to || chars[i] != '(') { // error
+						throw new IOException(
+						"More than two elements in a bracket");
+					}
+				}
+
+				// otherwise non-terminal node
+				int slot = symbol(chars, labelStart, labelEnd);
+				NodeInfo ni = new NodeInfo(
+						symbols[slot], symbolIDs[slot], false);
+				ni.setNodeID(nodeID);
+				nodeID++;
+
+				// create node and add to parent
+				Node<NodeInfo> node = new Node<NodeInfo>(ni);
+				stack[depth - 1].add(node);
+
+				// add this node to the stack
+				if (depth == stack.length) {
+					stack = Arrays.copyOf(stack, 2 * depth);
+				}
+				stack[depth++] = node;
+
+			} else if (c == ')') // close bracket
+			{
+				if (depth == 0) {
+					// note: this error was not there in evalb
+					throw new IOException("Too many closing brackets!");
+				} else {
+					depth--;
+					i++;
+				}
+			} else // error
+			{
+				throw new IOException("Reading sentence");
+			}
+		}
+
+		// whole string was read
+		// only the root node should be in the stack now
+		if (depth != 1) {
+			throw new IOException(
+			"Bracketing is unbalanced (too many open brackets)");
+		}
+
+		return tree;
+	}
+
+	/**
+	 * Returns the slot of the label or word made up of the characters
+	 * [from, to) of the buffer, the same String object (and ID) every time
+	 * the same symbol is read
+	 * @param chars
+	 * @param from
+	 * @param to
+	 * @return slot in symbols and symbolIDs
+	 */
+	private int symbol(char[] chars, int from, int to) {
+
+		int hash = 0;
+		for (int i = from; i < to; i++) {
+			hash = 31 * hash + chars[i];
+		}
+
+		int mask = symbols.length - 1;
+		for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+
+			String symbol = symbols[slot];
+
+			if (symbol == null) {
+				symbol = new String(chars, from, to - from);
+				symbols[slot] = symbol;
+				symbolIDs[slot] = Settings.symbols.getID(symbol);
+				symbolCount++;
+				if (2 * symbolCount > symbols.length) {
+					rehashSymbols();
+					return symbol(chars, from, to);
+				}
+				return slot;
+			}
+
+			if (symbol.hashCode() == hash && equals(symbol, chars, from, to)) {
+				return slot;
+			}
+		}
+	}
+
+	/**
+	 * Tells if the string consists of the characters [from, to)
+	 * @param s
+	 * @param chars
+	 * @param from
+	 * @param to
+	 * @return true if equal
+	 */
+	private static boolean equals(String s, char[] chars, int from, int to) {
+
+		if (s.length() != to - from) {
+			return false;
+		}
+
+		for (int i = 0; i < s.length(); i++) {
+			if (s.charAt(i) != chars[from + i]) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Doubles the size of the symbol table
+	 */
+	private void rehashSymbols() {
+
+		String[] oldSymbols = symbols;
+		int[] oldIDs = symbolIDs;
+		symbols = new String[2 * oldSymbols.length];
+		symbolIDs = new int[2 * oldSymbols.length];
+		int mask = symbols.length - 1;
+
+		for (int i = 0; i < oldSymbols.length; i++) {
+			String symbol = oldSymbols[i];
+			if (symbol != null) {
+				int slot = symbol.hashCode() & mask;
+				while (symbols[slot] != null) {
+					slot = (slot + 1) & mask;
+				}
+				symbols[slot] = symbol;
+				symbolIDs[slot] = oldIDs[i];
+			}
+		}
+	}
+
+}
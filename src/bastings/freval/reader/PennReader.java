@@ -1,21 +1,50 @@
-package joostbastings.freval.reader;
+package bastings.freval.reader;
 
 import java.io.*;
-import java.util.*;
+import java.util.Arrays;
 
-import joostbastings.freval.Settings;
-import joostbastings.freval.util.*;
+import bastings.freval.Settings;
+import bastings.freval.util.*;
 
 /**
- * This class reads in trees in Penn-format, 
+ * This class reads in trees in Penn-format,
  * e.g. <tt>(TOP (LABEL terminal) (LABEL terminal))</tt>
- * The internal representation for the tree is a {@link DirectedGraph} JGraphT directed graph
+ * The internal representation for the tree is a {@link Node} tree
+ *
+ * Lines are read into a reusable character buffer and parsed in place
+ * by a {@link PennParser}
  */
-public class PennReader {
+public class PennReader implements TreeReader {
 
-	private BufferedReader br;
+	/**
+	 * Initial size of the character buffer, it grows if a line is longer
+	 */
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private Reader reader;
 	private int line = 0;
-	
+
+	/**
+	 * Characters read from the file, the current line is in
+	 * [lineStart, lineEnd), unparsed characters in [position, limit)
+	 */
+	private char[] buffer = new char[BUFFER_SIZE];
+	private int position = 0;
+	private int limit = 0;
+	private int lineStart;
+	private int lineEnd;
+
+	/**
+	 * True if the last line ended with '\r', a '\n' directly after
+	 * it belongs to the same line ending
+	 */
+	private boolean skipLineFeed = false;
+
+	/**
+	 * Parses the lines
+	 */
+	private PennParser parser = new PennParser();
+
 	/**
 	 * The reader gets a name so messages that it prints
 	 * make more sense (i.e. it knows if it is a 'Gold' reader
@@ -29,7 +58,7 @@ public class PennReader {
 	 * @throws FileNotFoundException if {@link #openStream(String)} does so
 	 */
 	public PennReader(String filePath, String readerName) throws FileNotFoundException {
-		br = openStream(filePath);
+		reader = openStream(filePath);
 		name = readerName;
 	}
 
@@ -39,18 +68,17 @@ public class PennReader {
 	 * @return stream to the file
 	 * @throws FileNotFoundException
 	 */
-	private static BufferedReader openStream(String filePath) 
+	private static Reader openStream(String filePath)
 	throws FileNotFoundException {
-		BufferedReader br = new BufferedReader(new InputStreamReader(
-				new FileInputStream(new File(filePath))));
-		return br;
+		return new InputStreamReader(new FileInputStream(new File(filePath)));
 	}
 
 	/**
 	 * Closes the stream
+	 * @throws IOException
 	 */
-	protected void finalize() throws Throwable {
-		br.close();
+	public void close() throws IOException {
+		reader.close();
 	}
 
 	/**
@@ -59,168 +87,122 @@ public class PennReader {
 	 * @throws IOException
 	 */
 	public Node<NodeInfo> nextTree() throws IOException {
-		
+
 		line++; // starts at 0, so first line is 1
-		String s = br.readLine();
-		
-		// we assume we are done if we encounter 
-		// a line with whitespace, or if there are 
+
+		// we assume we are done if we encounter
+		// a line with whitespace, or if there are
 		// no more bytes
-		if (s == null) {
+		if (!readLine()) {
 			return null;
-		} else if (s.isEmpty()) {
+		} else if (lineStart == lineEnd) {
 			return null;
 		}
-		
+
 		// everything ok, we have a line to parse
 		if (Settings.debug > 1) {
 			//System.err.println("----------------------------------------");
 			System.err.println(name + ": Reading line "+line);
 		}
-		Node<NodeInfo> tree = parse(s);
+		Node<NodeInfo> tree = parser.parse(buffer, lineStart, lineEnd);
 		tree.getUserObject().setTreeID(line);
 		return tree;
 	}
-	
+
 	/**
-	 * Extract the next tree from the tree file
-	 * @return Graph of the tree
+	 * Reads the next line from the tree-file, without parsing it
+	 * @return false if there are no more trees
+	 * @throws IOException
 	 */
-	public Node<NodeInfo> parse(String s) 
-	throws IOException {
-		
-		// read in a serialized tree character by character
-		StringReader sr = new StringReader(s);
-
-		// variable used in processing the sentence
-		StringBuffer label = new StringBuffer();
-		StringBuffer word  = new StringBuffer();
-
-		// this holds nodes still being processed
-		// e.g. they do not yet know where they end,
-		// children are still being added
-		Stack<Node<NodeInfo>> stack = 
-			new Stack<Node<NodeInfo>>();
-		
-		// the tree
-		Node<NodeInfo> tree = new Node<NodeInfo>(
-				new NodeInfo("FREVALROOT"));
-		stack.add(tree);
-
-		int wordID = 0;
-		int nodeID = 0;
-
-		for(char c = (char) sr.read(); c != (char) -1; ) {
-
-			// skip whitespace
-			if (Character.isWhitespace(c)) {
-				c = (char) sr.read();				
-				continue;
-			} else if (c == '(') { // open bracket			
-
-				// collect label characters
-				c = (char) sr.read();
-				while (!Predicates.isTerminator(c)) {
-					label.append(c);
-					c = (char) sr.read();
-				}
+	public boolean skipTree() throws IOException {
+		line++;
+		return readLine() && lineStart != lineEnd;
+	}
 
-				// find terminal */
-				if (Character.isWhitespace(c)) {
-
-					// skip all further whitespace
-					do {
-						c = (char) sr.read();
-					}
-					while(Character.isWhitespace(c));
-
-					// collect word characters
-					while(!Predicates.isTerminator(c)) {
-						word.append(c);
-						c = (char) sr.read();
-					}
-
-					// output debug level 2 info
-					if (Settings.debug > 4) {
-						System.err.println(
-								String.format("label=%s, word=%s, wid=%d",
-										label, word, wordID));
-					}
-
-					// pre-terminal and terminal
-					if (c == ')') { 
-						
-						// pre-terminal
-						NodeInfo ni = new NodeInfo(label.toString());
-						ni.setNodeID(nodeID);
-						nodeID++;
-						Node<NodeInfo> node = new Node<NodeInfo>(ni);
-
-						// terminal
-						NodeInfo tni = new NodeInfo(word.toString(), true);					
-						tni.setTerminal(true);				
-						tni.setNodeID(nodeID);
-						nodeID++;
-						tni.setWordID(wordID);	
-						wordID++; // id for next terminal
-						Node<NodeInfo> terminal = new Node<NodeInfo>(tni);
-						
-						// add terminal to node
-						node.add(terminal);
-						
-						// add node to tree
-						stack.lastElement().add(node);
-
-						c = (char) sr.read();
-						word = new StringBuffer();
-						label = new StringBuffer();
-						continue;
-					} else if (c != '(') { // error
-						throw new IOException(
-						"More than two elements in a bracket");
-					}
-				}
+	/**
+	 * Reads the next line into the buffer, and sets lineStart and lineEnd
+	 * A line ends with '\n', '\r' or "\r\n" (like
+	 * {@link BufferedReader#readLine()})
+	 * @return false if there are no more lines
+	 * @throws IOException
+	 */
+	private boolean readLine() throws IOException {
+
+		if (skipLineFeed) {
+			skipLineFeed = false;
+			if (position == limit && !fill()) {
+				return false;
+			}
+			if (buffer[position] == '\n') {
+				position++;
+			}
+		}
+
+		int scan = position;
+
+		while (true) {
 
-				// otherwise non-terminal node
-				NodeInfo ni = new NodeInfo(label.toString());
-				ni.setNodeID(nodeID);
-				nodeID++;
-
-				// check if this node is root
-				if (tree == null) {
-					// create a new tree
-					tree = new Node<NodeInfo>(ni);
-				    stack.push(tree);
-				} else { // not root, create node and add to parent
-					Node<NodeInfo> node = 
-						new Node<NodeInfo>(ni);
-					stack.lastElement().add(node);
-					stack.push(node); // add this node to the stack						
+			for (; scan < limit; scan++) {
+				char c = buffer[scan];
+				if (c == '\n' || c == '\r') {
+					lineStart = position;
+					lineEnd = scan;
+					position = scan + 1;
+					skipLineFeed = (c == '\r');
+					return true;
 				}
-				label = new StringBuffer();
-				
-			} else if (c == ')') // close bracket
-			{
-				if (stack.isEmpty()) {
-					// note: this error was not there in evalb
-					throw new IOException("Too many closing brackets!");
-				} else {
-					stack.pop();
-					c = (char) sr.read();
+			}
+
+			// need more characters, keep the ones of this line
+			int offset = position;
+			if (!fill()) {
+				if (position == limit) {
+					return false;
 				}
-			} else // error
-			{
-				throw new IOException("Reading sentence");
+				// last line without line ending
+				lineStart = position;
+				lineEnd = limit;
+				position = limit;
+				return true;
 			}
+			scan -= offset - position;
+		}
+	}
+
+	/**
+	 * Reads more characters into the buffer, moving the unparsed
+	 * characters to the front (and growing the buffer if they fill it)
+	 * @return false if there are no more characters
+	 * @throws IOException
+	 */
+	private boolean fill() throws IOException {
+
+		if (position > 0) {
+			System.arraycopy(buffer, position, buffer, 0, limit - position);
+			limit -= position;
+			position = 0;
 		}
 
-		// whole string was read
-		// only the root node should be in the stack now
-		if (stack.size() != 1) {
-			throw new IOException(
-			"Bracketing is unbalanced (too many open brackets)");
+		if (limit == buffer.length) {
+			buffer = Arrays.copyOf(buffer, 2 * buffer.length);
 		}
-		
-		return tree;
+
+		int n = reader.read(buffer, limit, buffer.length - limit);
+		if (n == -1) {
+			return false;
+		}
+		limit += n;
+		return true;
 	}
+
+	/**
+	 * Parse a tree from a string
+	 * @return Graph of the tree
+	 */
+	public Node<NodeInfo> parse(String s)
+	throws IOException {
+		char[] chars = s.toCharArray();
+		return parser.parse(chars, 0, chars.length);
+	}
+
 }
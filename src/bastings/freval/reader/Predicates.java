@@ -1,4 +1,4 @@
-package joostbastings.freval.reader;
+package bastings.freval.reader;
 
 public class Predicates {
 
@@ -9,10 +9,10 @@ public class Predicates {
 	 * @param c
 	 * @return true if this is a terminator
 	 */
-	public static boolean isTerminator(Character c) {
+	public static boolean isTerminator(char c) {
 		
 		if ((Character.isWhitespace(c)) || 
-				c.equals('(') || c.equals(')')) {
+				c == '(' || c == ')') {
 			return true;
 		}
 		
@@ -0,0 +1,36 @@
+package bastings.freval.reader;
+
+import java.io.IOException;
+
+import bastings.freval.util.*;
+
+/**
+ * Reads trees one by one from a treebank file, one tree per line
+ */
+public interface TreeReader {
+
+	/**
+	 * Reads the next line from the tree-file and parses it
+	 * The tree ID of the root is set to the line number
+	 * (the first line is line 1)
+	 * @return the tree, or null if there are no more trees
+	 * or the line is empty
+	 * @throws IOException if the line could not be read or parsed
+	 */
+	public Node<NodeInfo> nextTree() throws IOException;
+
+	/**
+	 * Skips the next line, without returning (or reporting) its tree
+	 * @return false if there are no more trees or the line is empty,
+	 * like {@link #nextTree()} returning null
+	 * @throws IOException if the line could not be read
+	 */
+	public boolean skipTree() throws IOException;
+
+	/**
+	 * Closes the file
+	 * @throws IOException
+	 */
+	public void close() throws IOException;
+
+}
@@ -0,0 +1,214 @@
+package bastings.freval.util;
+
+import java.util.Enumeration;
+
+import bastings.freval.Settings;
+
+/**
+ * A tree stored as parallel int arrays (struct-of-arrays),
+ * which is the representation we evaluate on
+ *
+ * Nodes are numbered in pre-order, starting with 0 at the root, so a
+ * parent always has a lower number than its children and the subtree of
+ * a node is a consecutive range of numbers. The node number is also the
+ * node ID in the {@link NodeInfo} of the node.
+ *
+ * The tree is built once per sentence from a normalized {@link Node}
+ * tree, and is not changed afterwards.
+ */
+public class ArrayTree implements Spans {
+
+	/**
+	 * Marks a missing parent, child or sibling
+	 */
+	public static final int NONE = -1;
+
+	private final int size;
+
+	private final int[] parent;
+	private final int[] firstChild;
+	private final int[] nextSibling;
+	private final int[] depth;
+	private final int[] start;
+	private final int[] end;
+
+	/**
+	 * Label IDs, the same label has the same ID in all trees
+	 * @see {@link Settings#symbols}
+	 */
+	private final int[] label;
+
+	/**
+	 * The node infos, for names, match flags and debug output
+	 */
+	private final NodeInfo[] info;
+
+	/**
+	 * Build the array tree from a node tree
+	 * @param root
+	 */
+	public ArrayTree(Node<NodeInfo> root) {
+
+		int count = 0;
+		Enumeration<Node<NodeInfo>> en = root.preorderEnumeration();
+		while (en.hasMoreElements()) {
+			en.nextElement();
+			count++;
+		}
+
+		size = count;
+		parent = new int[size];
+		firstChild = new int[size];
+		nextSibling = new int[size];
+		depth = new int[size];
+		start = new int[size];
+		end = new int[size];
+		label = new int[size];
+		info = new NodeInfo[size];
+
+		// the last child seen of every node, to link the siblings
+		int[] lastChild = new int[size];
+
+		// the path from the root to the current node, as node numbers
+		int[] path = new int[size];
+		Node<NodeInfo>[] pathNodes = Node.newArray(size);
+		int pathLength = 0;
+
+		en = root.preorderEnumeration();
+		for (int i = 0; en.hasMoreElements(); i++) {
+
+			Node<NodeInfo> node = en.nextElement();
+
+			// go up the path until we find the parent of this node
+			while (pathLength > 0 &&
+					pathNodes[pathLength - 1] != node.getParent()) {
+				pathLength--;
+			}
+
+			NodeInfo ni = node.getUserObject();
+			ni.setNodeID(i);
+
+			info[i] = ni;
+			start[i] = ni.getStart();
+			end[i] = ni.getEnd();
+			depth[i] = pathLength;
+			firstChild[i] = NONE;
+			nextSibling[i] = NONE;
+			lastChild[i] = NONE;
+
+			label[i] = ni.getNameID();
+
+			if (pathLength == 0) {
+				parent[i] = NONE;
+			} else {
+				int p = path[pathLength - 1];
+				parent[i] = p;
+				if (lastChild[p] == NONE) {
+					firstChild[p] = i;
+				} else {
+					nextSibling[lastChild[p]] = i;
+				}
+				lastChild[p] = i;
+			}
+
+			path[pathLength] = i;
+			pathNodes[pathLength] = node;
+			pathLength++;
+		}
+	}
+
+	/**
+	 * @return the number of nodes
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return the tree ID (line number) stored in the root
+	 */
+	public int getTreeID() {
+		return info[0].getTreeID();
+	}
+
+	/**
+	 * @param node
+	 * @return parent of the node, or {@link #NONE} for the root
+	 */
+	public int getParent(int node) {
+		return parent[node];
+	}
+
+	/**
+	 * @param node
+	 * @return first child of the node, or {@link #NONE} for a leaf
+	 */
+	public int getFirstChild(int node) {
+		return firstChild[node];
+	}
+
+	/**
+	 * @param node
+	 * @return next sibling of the node, or {@link #NONE}
+	 */
+	public int getNextSibling(int node) {
+		return nextSibling[node];
+	}
+
+	/**
+	 * @param node
+	 * @return distance to the root, the root has depth 0
+	 */
+	public int getDepth(int node) {
+		return depth[node];
+	}
+
+	/**
+	 * @param node
+	 * @return index of the first word the node covers
+	 */
+	public int getStart(int node) {
+		return start[node];
+	}
+
+	/**
+	 * @param node
+	 * @return index after the last word the node covers
+	 */
+	public int getEnd(int node) {
+		return end[node];
+	}
+
+	/**
+	 * @param node
+	 * @return label ID of the node
+	 */
+	public int getLabel(int node) {
+		return label[node];
+	}
+
+	/**
+	 * @param node
+	 * @return label of the node
+	 */
+	public String getName(int node) {
+		return info[node].getName();
+	}
+
+	/**
+	 * @param node
+	 * @return true if the node matches a node in the other tree
+	 */
+	public boolean matches(int node) {
+		return info[node].matches();
+	}
+
+	/**
+	 * @param node
+	 * @return the node info of the node
+	 */
+	public NodeInfo getInfo(int node) {
+		return info[node];
+	}
+
+}
@@ -0,0 +1,206 @@
+package bastings.freval.util;
+
+import java.util.Arrays;
+
+/**
+ * The brackets (labeled spans) of a tree that are evaluated with
+ * fragment-size limit 1, the PARSEVAL measures
+ *
+ * The brackets are the nodes that {@link TreeFunctions#reduceForEvaluation(Node)}
+ * keeps, numbered in pre-order like in an {@link ArrayTree} (0 is our own
+ * root element), with the same spans and the same pre-terminal tags.
+ * They are taken from the tree in a single post-order pass, straight
+ * into int arrays: the tree is not changed and no other nodes or
+ * objects are created.
+ *
+ * <b>ASSUME: the deleted and quote nodes were identified
+ * (@see {@link TreeFunctions#identifyDeleteAndQuoteNodes(Node,
+ * bastings.freval.EvaluationConfig)})</b>
+ */
+public class Brackets implements Spans {
+
+	private int size;
+
+	private int[] start;
+	private int[] end;
+	private int[] label;
+
+	/**
+	 * The label of the pre-terminal of every word, by word ID
+	 */
+	private int[] tags;
+
+	/**
+	 * Take the brackets from a tree
+	 * @param tree
+	 */
+	public Brackets(Node<NodeInfo> tree) {
+
+		// by pre-order number of all nodes, the brackets are
+		// moved to the front when the tree is done
+		start = new int[16];
+		end = new int[16];
+		label = new int[16];
+		boolean[] isBracket = new boolean[16];
+		int nodes = 0;
+
+		tags = new int[16];
+		int wid = 0;
+
+		// the path from the root to the current node, with for every
+		// node on it: its pre-order number, the next child to visit,
+		// the largest height of its children (-1 for none) and the
+		// span of its children (-1 as long as no word was found),
+		// like the Reduction of reduceForEvaluation
+		Node<NodeInfo>[] path = Node.newArray(16);
+		int[] number = new int[16];
+		int[] next = new int[16];
+		int[] height = new int[16];
+		int[] spanStart = new int[16];
+		int[] spanEnd = new int[16];
+
+		int depth = 0;
+		path[0] = tree;
+		number[0] = nodes++;
+		next[0] = 0;
+		height[0] = -1;
+		spanStart[0] = -1;
+		spanEnd[0] = -1;
+		depth++;
+
+		while (depth > 0) {
+
+			int d = depth - 1;
+			Node<NodeInfo> node = path[d];
+
+			// go down to the next child
+			if (next[d] < node.getChildCount()) {
+				if (depth == path.length) {
+					int length = 2 * depth;
+					path = Arrays.copyOf(path, length);
+					number = Arrays.copyOf(number, length);
+					next = Arrays.copyOf(next, length);
+					height = Arrays.copyOf(height, length);
+					spanStart = Arrays.copyOf(spanStart, length);
+					spanEnd = Arrays.copyOf(spanEnd, length);
+				}
+				if (nodes == start.length) {
+					start = Arrays.copyOf(start, 2 * nodes);
+					end = Arrays.copyOf(end, 2 * nodes);
+					label = Arrays.copyOf(label, 2 * nodes);
+					isBracket = Arrays.copyOf(isBracket, 2 * nodes);
+				}
+				path[depth] = node.getChildAt(next[d]++);
+				number[depth] = nodes++;
+				next[depth] = 0;
+				height[depth] = -1;
+				spanStart[depth] = -1;
+				spanEnd[depth] = -1;
+				depth++;
+				continue;
+			}
+
+			depth--;
+			NodeInfo info = node.getUserObject();
+			int p = d - 1;
+
+			// the height this node adds to its parent: a node that is
+			// removed (deleted, or with an empty span) hands over the
+			// height of its children, a node that stays is one higher
+			int childHeight = height[d];
+
+			// deleted nodes are skipped, their children move up
+			// (our own root element always stays)
+			if (p < 0 || !info.isDeleted()) {
+
+				// words get consecutive word IDs, starting with 0
+				if (info.isTerminal()) {
+					spanStart[d] = wid;
+					spanEnd[d] = wid + 1;
+					if (wid == tags.length) {
+						tags = Arrays.copyOf(tags, 2 * wid);
+					}
+					tags[wid] = node.getParent().getUserObject().getNameID();
+					wid++;
+				}
+
+				// nodes with empty spans are removed as well, and
+				// leafs and pre-terminals are not brackets
+				if (p < 0) {
+					isBracket[number[d]] = true;
+				} else if (spanStart[d] != spanEnd[d]) {
+					childHeight++;
+					isBracket[number[d]] = (childHeight >= 2);
+				}
+				start[number[d]] = spanStart[d];
+				end[number[d]] = spanEnd[d];
+				label[number[d]] = info.getNameID();
+			}
+
+			if (p >= 0) {
+				height[p] = Math.max(height[p], childHeight);
+				// the first start, the last end
+				// (wordless constituents have no start and end)
+				if (spanStart[p] == -1) {
+					spanStart[p] = spanStart[d];
+				}
+				if (spanEnd[d] != -1) {
+					spanEnd[p] = spanEnd[d];
+				}
+			}
+		}
+
+		// keep the brackets, in pre-order
+		for (int i = 0; i < nodes; i++) {
+			if (isBracket[i]) {
+				start[size] = start[i];
+				end[size] = end[i];
+				label[size] = label[i];
+				size++;
+			}
+		}
+
+		tags = Arrays.copyOf(tags, wid);
+	}
+
+	/**
+	 * @return the number of brackets, including our own root element
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @param bracket
+	 * @return index of the first word the bracket covers
+	 */
+	public int getStart(int bracket) {
+		return start[bracket];
+	}
+
+	/**
+	 * @param bracket
+	 * @return index after the last word the bracket covers
+	 */
+	public int getEnd(int bracket) {
+		return end[bracket];
+	}
+
+	/**
+	 * @param bracket
+	 * @return label ID of the bracket
+	 */
+	public int getLabel(int bracket) {
+		return label[bracket];
+	}
+
+	/**
+	 * @return the label of the pre-terminal of every word, by word ID
+	 * (@see {@link TreeFunctions#getCorrectTagCount(int[], int[],
+	 * bastings.freval.EvaluationConfig)})
+	 */
+	public int[] getTags() {
+		return tags;
+	}
+
+}
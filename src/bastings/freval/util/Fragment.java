@@ -1,18 +1,110 @@
 package bastings.freval.util;
 
-import java.util.LinkedList;
+import java.util.Arrays;
+
+/**
+ * A fragment: a set of node numbers in an {@link ArrayTree}
+ *
+ * The nodes are kept as a bitset over the pre-order node numbers,
+ * in a single long for trees of up to 64 nodes and in an array of longs
+ * for larger trees. Going over the nodes gives them in pre-order.
+ *
+ * Besides the nodes, a fragment keeps its maximum depth, its right-most
+ * node at that depth and whether every node matches. These are updated
+ * when a node is added, so extending a fragment never has to look at
+ * the nodes already in it.
+ */
+public class Fragment {
+
+	/**
+	 * Returned by {@link #next(int)} if there are no more nodes
+	 */
+	public static final int NONE = -1;
 
-public class Fragment extends LinkedList<Node<NodeInfo>> {
-	
 	/**
-	 * serial version UID
+	 * The nodes, for trees of up to 64 nodes
 	 */
-	private static final long serialVersionUID = 4961034538622618596L;
-	
+	private long bits;
+
+	/**
+	 * The nodes, for larger trees (null for small trees)
+	 */
+	private long[] words;
+
+	/**
+	 * The number of nodes in this fragment
+	 */
+	private int size;
+
 	/**
 	 * Indicates if EVERY node in this fragment matches, or not
 	 */
-	private boolean matches;
+	private boolean matches = true;
+
+	/**
+	 * The depth of the deepest node(s), and the right-most
+	 * (highest numbered) node at that depth
+	 */
+	private int maxDepth = -1;
+	private int rightMostDeepest = NONE;
+
+	/**
+	 * Empty fragment for a tree with the specified number of nodes
+	 * @param treeSize
+	 */
+	public Fragment(int treeSize) {
+		if (treeSize > 64) {
+			words = new long[(treeSize + 63) >>> 6];
+		}
+	}
+
+	/**
+	 * Copy constructor
+	 * @param f
+	 */
+	private Fragment(Fragment f) {
+		bits = f.bits;
+		words = (f.words == null ? null : f.words.clone());
+		size = f.size;
+		matches = f.matches;
+		maxDepth = f.maxDepth;
+		rightMostDeepest = f.rightMostDeepest;
+	}
+
+	/**
+	 * Makes this fragment a copy of another fragment of the same tree
+	 * (without creating any objects)
+	 * @param f
+	 */
+	public void copyFrom(Fragment f) {
+		bits = f.bits;
+		if (f.words != null) {
+			if (words == null || words.length != f.words.length) {
+				words = new long[f.words.length];
+			}
+			System.arraycopy(f.words, 0, words, 0, words.length);
+		} else {
+			words = null;
+		}
+		size = f.size;
+		matches = f.matches;
+		maxDepth = f.maxDepth;
+		rightMostDeepest = f.rightMostDeepest;
+	}
+
+	/**
+	 * Removes all nodes from this fragment
+	 */
+	public void clear() {
+		bits = 0;
+		if (words != null) {
+			Arrays.fill(words, 0);
+		}
+		size = 0;
+		matches = true;
+		maxDepth = -1;
+		rightMostDeepest = NONE;
+	}
 
 	/**
 	 * @return the matches
@@ -27,34 +119,138 @@ public class Fragment extends LinkedList<Node<NodeInfo>> {
 	public void setMatches(boolean matches) {
 		this.matches = matches;
 	}
-	
-	@Override
+
 	/**
-	 * Shallow copy of this fragment
-	 * e.g. references to the original elements are the same
-	 * but matches variable is unique for the cloned fragment
-	 * as is the _list_ of elements itself
+	 * @return the number of nodes in the fragment
 	 */
-	public Fragment clone() {
-		Fragment f = new Fragment();
-		f.setMatches(matches);
-		f.addAll(this);
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return the depth of the deepest node in the fragment
+	 */
+	public int getMaxDepth() {
+		return maxDepth;
+	}
+
+	/**
+	 * @return the right-most node of the deepest nodes in the fragment
+	 */
+	public int getRightMostDeepest() {
+		return rightMostDeepest;
+	}
+
+	/**
+	 * @param node
+	 * @return true if the node is in the fragment
+	 */
+	public boolean contains(int node) {
+		if (words == null) {
+			return node < 64 && (bits & (1L << node)) != 0;
+		}
+		return (words[node >>> 6] & (1L << node)) != 0;
+	}
+
+	/**
+	 * @return the first node of the fragment in pre-order,
+	 * or {@link #NONE} if it is empty
+	 */
+	public int first() {
+		return next(-1);
+	}
+
+	/**
+	 * Returns the next node of the fragment in pre-order
+	 * @param node a node number (or -1 to get the first node)
+	 * @return the first node in the fragment with a higher number,
+	 * or {@link #NONE} if there is none
+	 */
+	public int next(int node) {
+
+		int from = node + 1;
+
+		if (words == null) {
+			if (from >= 64) {
+				return NONE;
+			}
+			long rest = bits & (-1L << from);
+			return rest == 0 ? NONE : Long.numberOfTrailingZeros(rest);
+		}
+
+		int w = from >>> 6;
+		if (w >= words.length) {
+			return NONE;
+		}
+		long rest = words[w] & (-1L << from);
+		while (rest == 0) {
+			if (++w == words.length) {
+				return NONE;
+			}
+			rest = words[w];
+		}
+		return (w << 6) + Long.numberOfTrailingZeros(rest);
+	}
+
+	/**
+	 * Adds a node to the fragment
+	 * @param node node number
+	 * @param depth depth of the node in the tree
+	 * @param nodeMatches true if the node matches
+	 */
+	public void add(int node, int depth, boolean nodeMatches) {
+
+		if (words == null) {
+			bits |= 1L << node;
+		} else {
+			words[node >>> 6] |= 1L << node;
+		}
+		size++;
+
+		// if the added node does not match, the whole fragment
+		// also does not
+		matches &= nodeMatches;
+
+		if (depth > maxDepth || (depth == maxDepth && node > rightMostDeepest)) {
+			maxDepth = depth;
+			rightMostDeepest = node;
+		}
+	}
+
+	/**
+	 * Returns a copy of this fragment with a node added
+	 * @param node node number
+	 * @param depth depth of the node in the tree
+	 * @param nodeMatches true if the node matches
+	 * @return new fragment
+	 */
+	public Fragment extend(int node, int depth, boolean nodeMatches) {
+		Fragment f = new Fragment(this);
+		f.add(node, depth, nodeMatches);
 		return f;
 	}
-	
+
+	/**
+	 * Copy of this fragment
+	 */
+	@Override
+	public Fragment clone() {
+		return new Fragment(this);
+	}
+
 	/**
 	 * String representation
 	 */
 	public String toString() {
-		
+
 		StringBuffer sb = new StringBuffer();
 		sb.append("( ");
-		for(Node<NodeInfo> node : this) {
-			sb.append(node.getUserObject().getNodeID());
+		for(int node = first(); node != NONE; node = next(node)) {
+			sb.append(node);
 			sb.append(" ");
 		}
 		sb.append(")");
 		return sb.toString();
 	}
-	
+
 }
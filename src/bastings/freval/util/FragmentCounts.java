@@ -0,0 +1,326 @@
+package bastings.freval.util;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.Arrays;
+
+/**
+ * The numbers of gold, test and matched fragments by fragment size
+ *
+ * The counts are kept in long arrays, that grow together. A count that
+ * does not fit in a long any more continues as a {@link BigInteger}, so
+ * the counts are always exact (and only counts that large pay for it).
+ *
+ * Adding all counts of another instance is a plain loop over the arrays,
+ * that checks for overflow afterwards.
+ */
+public class FragmentCounts {
+
+	/**
+	 * Kinds of counts
+	 */
+	public static final int GOLD = 0;
+	public static final int TEST = 1;
+	public static final int MATCHED = 2;
+
+	private static final int KINDS = 3;
+
+	/**
+	 * At start, we reserve space for size up to 70
+	 * If larger fragments are found, the space will be extended
+	 */
+	private static final int INITIAL_CAPACITY = 70;
+
+	/**
+	 * Counts by kind and fragment size
+	 * <b>Note: fragment size 1 is at index 0!</b>
+	 */
+	private long[][] counts = new long[KINDS][INITIAL_CAPACITY];
+
+	/**
+	 * Counts that do not fit in a long, by kind and fragment size
+	 * (null until there is one, these replace the long count)
+	 */
+	private BigInteger[][] large = null;
+
+	/**
+	 * The largest fragment size that has a count (possibly 0)
+	 */
+	private int size = 0;
+
+	/**
+	 * @return the largest fragment size that has a count
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Adds to a count
+	 * @param kind {@link #GOLD}, {@link #TEST} or {@link #MATCHED}
+	 * @param fragmentSize
+	 * @param count
+	 */
+	public void add(int kind, int fragmentSize, long count) {
+
+		ensureCapacity(fragmentSize);
+		int i = fragmentSize - 1;
+
+		if (large != null && large[kind][i] != null) {
+			setLarge(kind, i, large[kind][i].add(BigInteger.valueOf(count)));
+			return;
+		}
+
+		long a = counts[kind][i];
+		long sum = a + count;
+		if (((a ^ sum) & (count ^ sum)) < 0) { // overflow
+			setLarge(kind, i,
+					BigInteger.valueOf(a).add(BigInteger.valueOf(count)));
+		} else {
+			counts[kind][i] = sum;
+		}
+	}
+
+	/**
+	 * Adds to a count
+	 * @param kind {@link #GOLD}, {@link #TEST} or {@link #MATCHED}
+	 * @param fragmentSize
+	 * @param count
+	 */
+	public void add(int kind, int fragmentSize, BigInteger count) {
+
+		if (count.bitLength() < 64) {
+			add(kind, fragmentSize, count.longValue());
+			return;
+		}
+
+		ensureCapacity(fragmentSize);
+		setLarge(kind, fragmentSize - 1, get(kind, fragmentSize).add(count));
+	}
+
+	/**
+	 * Adds all counts of another instance to this one
+	 * @param other
+	 */
+	public void addAll(FragmentCounts other) {
+
+		ensureCapacity(other.size);
+
+		if (large == null && other.large == null) {
+
+			// add the arrays, and note if any sum overflows
+			long overflow = 0;
+			for (int kind = 0; kind < KINDS; kind++) {
+				long[] a = counts[kind];
+				long[] b = other.counts[kind];
+				for (int i = 0; i < other.size; i++) {
+					long sum = a[i] + b[i];
+					overflow |= (a[i] ^ sum) & (b[i] ^ sum);
+					a[i] = sum;
+				}
+			}
+
+			if (overflow >= 0) {
+				return;
+			}
+
+			// undo, and add one by one
+			for (int kind = 0; kind < KINDS; kind++) {
+				long[] a = counts[kind];
+				long[] b = other.counts[kind];
+				for (int i = 0; i < other.size; i++) {
+					a[i] -= b[i];
+				}
+			}
+		}
+
+		for (int kind = 0; kind < KINDS; kind++) {
+			for (int fragmentSize = 1; fragmentSize <= other.size;
+			fragmentSize++) {
+				if (other.isLarge(kind, fragmentSize - 1)) {
+					add(kind, fragmentSize, other.get(kind, fragmentSize));
+				} else {
+					add(kind, fragmentSize,
+							other.counts[kind][fragmentSize - 1]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns a count
+	 * @param kind {@link #GOLD}, {@link #TEST} or {@link #MATCHED}
+	 * @param fragmentSize
+	 * @return exact count (0 above {@link #size()})
+	 */
+	public BigInteger get(int kind, int fragmentSize) {
+		if (fragmentSize > size) {
+			return BigInteger.ZERO;
+		}
+		if (isLarge(kind, fragmentSize - 1)) {
+			return large[kind][fragmentSize - 1];
+		}
+		return BigInteger.valueOf(counts[kind][fragmentSize - 1]);
+	}
+
+	/**
+	 * Returns a count for printing with %d
+	 * @param kind {@link #GOLD}, {@link #TEST} or {@link #MATCHED}
+	 * @param fragmentSize
+	 * @return exact count, a Long or a BigInteger
+	 */
+	public Number getNumber(int kind, int fragmentSize) {
+		if (fragmentSize <= size && !isLarge(kind, fragmentSize - 1)) {
+			return counts[kind][fragmentSize - 1];
+		}
+		return get(kind, fragmentSize);
+	}
+
+	/**
+	 * Returns a count as a double, e.g. for recall and precision
+	 * @param kind {@link #GOLD}, {@link #TEST} or {@link #MATCHED}
+	 * @param fragmentSize
+	 * @return count
+	 */
+	public double getDouble(int kind, int fragmentSize) {
+		if (fragmentSize > size) {
+			return 0.0;
+		}
+		if (isLarge(kind, fragmentSize - 1)) {
+			return large[kind][fragmentSize - 1].doubleValue();
+		}
+		return counts[kind][fragmentSize - 1];
+	}
+
+	/**
+	 * Tells if two kinds of counts are equal for a fragment size
+	 * @param kind1
+	 * @param kind2
+	 * @param fragmentSize
+	 * @return true if the counts are equal
+	 */
+	public boolean areEqual(int kind1, int kind2, int fragmentSize) {
+		return get(kind1, fragmentSize).equals(get(kind2, fragmentSize));
+	}
+
+	/**
+	 * Tells if another instance has exactly the same counts
+	 * @param other
+	 * @return true if all counts are equal for every fragment size
+	 */
+	public boolean hasSameCounts(FragmentCounts other) {
+
+		if (size != other.size) {
+			return false;
+		}
+
+		for (int kind = 0; kind < KINDS; kind++) {
+			for (int fragmentSize = 1; fragmentSize <= size; fragmentSize++) {
+				if (!get(kind, fragmentSize).equals(
+						other.get(kind, fragmentSize))) {
+					return false;
+				}
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Writes all counts, a count that does not fit in a long as the
+	 * bytes of its BigInteger
+	 * @param out
+	 * @throws IOException
+	 */
+	public void write(DataOutput out) throws IOException {
+
+		out.writeInt(size);
+
+		for (int kind = 0; kind < KINDS; kind++) {
+			for (int i = 0; i < size; i++) {
+				if (isLarge(kind, i)) {
+					byte[] bytes = large[kind][i].toByteArray();
+					out.writeBoolean(true);
+					out.writeInt(bytes.length);
+					out.write(bytes);
+				} else {
+					out.writeBoolean(false);
+					out.writeLong(counts[kind][i]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Adds the counts written by {@link #write(DataOutput)}
+	 * @param in
+	 * @throws IOException
+	 */
+	public void read(DataInput in) throws IOException {
+
+		int sizes = in.readInt();
+		if (sizes < 0) {
+			throw new IOException("Invalid number of fragment sizes: " + sizes);
+		}
+		ensureCapacity(sizes);
+
+		for (int kind = 0; kind < KINDS; kind++) {
+			for (int fragmentSize = 1; fragmentSize <= sizes; fragmentSize++) {
+				if (in.readBoolean()) {
+					byte[] bytes = new byte[in.readInt()];
+					in.readFully(bytes);
+					add(kind, fragmentSize, new BigInteger(bytes));
+				} else {
+					add(kind, fragmentSize, in.readLong());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Makes sure there are counts for fragmentSize
+	 * @param fragmentSize
+	 */
+	private void ensureCapacity(int fragmentSize) {
+
+		if (fragmentSize > counts[0].length) {
+			int capacity = Math.max(2 * counts[0].length, fragmentSize);
+			for (int kind = 0; kind < KINDS; kind++) {
+				counts[kind] = Arrays.copyOf(counts[kind], capacity);
+				if (large != null) {
+					large[kind] = Arrays.copyOf(large[kind], capacity);
+				}
+			}
+		}
+
+		if (fragmentSize > size) {
+			size = fragmentSize;
+		}
+	}
+
+	private boolean isLarge(int kind, int i) {
+		return large != null && large[kind][i] != null;
+	}
+
+	/**
+	 * Stores a count, as a long if it fits
+	 */
+	private void setLarge(int kind, int i, BigInteger count) {
+
+		if (count.bitLength() < 64) {
+			counts[kind][i] = count.longValue();
+			if (large != null) {
+				large[kind][i] = null;
+			}
+			return;
+		}
+
+		if (large == null) {
+			large = new BigInteger[KINDS][counts[0].length];
+		}
+		large[kind][i] = count;
+	}
+
+}
@@ -1,175 +1,272 @@
 package bastings.freval.util;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Enumeration;
-import javax.swing.tree.DefaultMutableTreeNode;
-import javax.swing.tree.TreeNode;
+import java.util.List;
+import java.util.NoSuchElementException;
 
 /**
- * This Node class is a generic extension of {@link DefaultMutableTreeNode}
- * (so it implements {@link TreeNode})
- * which makes sure previously returned Object types are now of type E
- * so they do not need to be casted to their correct type anymore
- * 
- * It also returns Enumerations with type Node in contrast to the
- * original Enumeration without a type.
- * 
+ * A generic tree node holding a user object of type E,
+ * with the part of the interface of Swing's DefaultMutableTreeNode
+ * that we use, but without its synchronized children vector
+ * and without any dependency on Swing
+ *
+ * The enumerations are iterative, so they also work for very deep trees.
+ *
+ * This is the representation used while reading and normalizing trees,
+ * for evaluation trees are converted to an {@link ArrayTree}
  */
-public class Node<E> extends DefaultMutableTreeNode {
+public class Node<E> {
 
 	/**
-	 * Version UID for serialization
+	 * The user object (node info)
 	 */
-	private static final long serialVersionUID = 4355061655930820227L;
+	private E userObject;
 
 	/**
-	 * Default constructor, calls parent
+	 * The parent of this node, null for a root
+	 */
+	private Node<E> parent;
+
+	/**
+	 * The children of this node, null for a leaf
+	 */
+	private List<Node<E>> children;
+
+	/**
+	 * Default constructor, without user object
 	 */
 	public Node() {
-		super();
+		this(null);
 	}
-	
-	/** 
+
+	/**
 	 * Constructor with user object
 	 */
-	public Node(Object o) {
-		super(o);
+	public Node(E o) {
+		userObject = o;
+	}
+
+	/**
+	 * Creates an array of nodes (e.g. a stack of the nodes on a path)
+	 * @param size
+	 * @return array of the size, without nodes
+	 */
+	@SuppressWarnings("unchecked")
+	public static <E> Node<E>[] newArray(int size) {
+		return (Node<E>[]) new Node<?>[size];
 	}
-	
-	@SuppressWarnings("unchecked")	
+
 	/**
-	 * Returns the parent as a Node object
-	 * @return parent
+	 * Returns the parent
+	 * @return parent or null if this is a root
 	 */
 	public Node<E> getParent() {
-		return (Node<E>) super.getParent();
+		return parent;
 	}
-	
-	@SuppressWarnings("unchecked")
-	@Override
+
 	/**
-	 * Returns the user object using the generic type of this class
+	 * Returns the user object
 	 * @return user object
 	 */
 	public E getUserObject() {
-		return (E) super.getUserObject();
+		return userObject;
 	}
 
-	@SuppressWarnings("unchecked")
-	@Override	
+	/**
+	 * Sets the user object
+	 * @param o
+	 */
+	public void setUserObject(E o) {
+		userObject = o;
+	}
+
+	/**
+	 * Returns the root of the tree this node is in
+	 * @return root
+	 */
 	public Node<E> getRoot() {
-		return (Node<E>) super.getRoot();
+		Node<E> node = this;
+		while (node.parent != null) {
+			node = node.parent;
+		}
+		return node;
 	}
-	
-	@SuppressWarnings("unchecked")
-	@Override	
-	public Node<E> getFirstChild() {
-		return (Node<E>) super.getFirstChild();
-	}		
 
-	@SuppressWarnings("unchecked")
-	@Override	
-	public Node<E> getLastChild() {
-		return (Node<E>) super.getLastChild();
-	}	
-	
-	@SuppressWarnings("unchecked")
-	@Override	
-	public Node<E> getFirstLeaf() {
-		return (Node<E>) super.getFirstLeaf();
-	}		
+	/**
+	 * @return true if this node has no parent
+	 */
+	public boolean isRoot() {
+		return parent == null;
+	}
 
-	@SuppressWarnings("unchecked")
-	@Override	
-	public Node<E> getLastLeaf() {
-		return (Node<E>) super.getLastLeaf();
+	/**
+	 * @return true if this node has no children
+	 */
+	public boolean isLeaf() {
+		return children == null || children.isEmpty();
 	}
-	
-	@SuppressWarnings("unchecked")
-	@Override	
-	public Node<E> getNextLeaf() {
-		return (Node<E>) super.getNextLeaf();
+
+	/**
+	 * Returns the number of levels above this node
+	 * (the distance to the root), the root has level 0
+	 * @return level
+	 */
+	public int getLevel() {
+		int level = 0;
+		for (Node<E> node = parent; node != null; node = node.parent) {
+			level++;
+		}
+		return level;
 	}
-	
-	@SuppressWarnings("unchecked")
-	@Override	
-	public Node<E> getPreviousLeaf() {
-		return (Node<E>) super.getPreviousLeaf();
+
+	/**
+	 * @return the number of children
+	 */
+	public int getChildCount() {
+		return children == null ? 0 : children.size();
 	}
-	
-	@SuppressWarnings("unchecked")
-	@Override	
-	public Node<E> getNextNode() {
-		return (Node<E>) super.getNextNode();
+
+	/**
+	 * @param index
+	 * @return the child at the index
+	 */
+	public Node<E> getChildAt(int index) {
+		if (children == null) {
+			throw new ArrayIndexOutOfBoundsException("node has no children");
+		}
+		return children.get(index);
 	}
-	
-	@SuppressWarnings("unchecked")
-	@Override	
-	public Node<E> getPreviousNode() {
-		return (Node<E>) super.getPreviousNode();
+
+	/**
+	 * @return the first child
+	 * @throws NoSuchElementException if this node has no children
+	 */
+	public Node<E> getFirstChild() {
+		if (isLeaf()) {
+			throw new NoSuchElementException("node has no children");
+		}
+		return children.get(0);
 	}
-	
-	@SuppressWarnings("unchecked")
-	@Override	
+
+	/**
+	 * @return the last child
+	 * @throws NoSuchElementException if this node has no children
+	 */
+	public Node<E> getLastChild() {
+		if (isLeaf()) {
+			throw new NoSuchElementException("node has no children");
+		}
+		return children.get(children.size() - 1);
+	}
+
+	/**
+	 * @return the next child of the parent, or null
+	 */
 	public Node<E> getNextSibling() {
-		return (Node<E>) super.getNextSibling();
+		if (parent == null) {
+			return null;
+		}
+		int index = parent.children.indexOf(this);
+		return index + 1 < parent.children.size() ?
+				parent.children.get(index + 1) : null;
 	}
-	
-	@SuppressWarnings("unchecked")
-	@Override	
+
+	/**
+	 * @return the previous child of the parent, or null
+	 */
 	public Node<E> getPreviousSibling() {
-		return (Node<E>) super.getPreviousSibling();
-	}	
-	
-	@SuppressWarnings("unchecked")
-	@Override	
+		if (parent == null) {
+			return null;
+		}
+		int index = parent.children.indexOf(this);
+		return index > 0 ? parent.children.get(index - 1) : null;
+	}
+
+	/**
+	 * Adds a node as the last child of this node
+	 * (removing it from its old parent first)
+	 * @param child
+	 */
+	public void add(Node<E> child) {
+		if (child.parent != null) {
+			child.removeFromParent();
+		}
+		if (children == null) {
+			children = new ArrayList<Node<E>>(2);
+		}
+		children.add(child);
+		child.parent = this;
+	}
+
+	/**
+	 * Removes this node from its parent
+	 */
+	public void removeFromParent() {
+		if (parent != null) {
+			parent.children.remove(this);
+			parent = null;
+		}
+	}
+
+	/**
+	 * Replaces the children of this node, in one go
+	 * (the old children keep their parent, they are expected to be
+	 * discarded; the new ones are not removed from their old parent)
+	 * @param newChildren the new children, or null for none
+	 */
+	void setChildren(List<Node<E>> newChildren) {
+		children = newChildren;
+		if (newChildren != null) {
+			for (Node<E> child : newChildren) {
+				child.parent = this;
+			}
+		}
+	}
+
+	/**
+	 * @return enumeration of the children of this node
+	 */
 	public Enumeration<Node<E>> children() {
-		return (Enumeration<Node<E>>) super.children();
-	}	
-	
-	@SuppressWarnings("unchecked")
-	@Override	
-	public Enumeration<Node<E>> pathFromAncestorEnumeration(
-			TreeNode ancestor) {
-		return (Enumeration<Node<E>>) super.
-			pathFromAncestorEnumeration(ancestor);
+		if (children == null) {
+			return Collections.enumeration(Collections.<Node<E>>emptyList());
+		}
+		return Collections.enumeration(children);
 	}
-	
-	@SuppressWarnings("unchecked")
-	@Override	
+
+	/**
+	 * @return enumeration of the subtree of this node in pre-order
+	 */
+	public Enumeration<Node<E>> preorderEnumeration() {
+		return new PreorderEnumeration<E>(this);
+	}
+
+	/**
+	 * @return enumeration of the subtree of this node in post-order
+	 */
 	public Enumeration<Node<E>> postorderEnumeration() {
-		return (Enumeration<Node<E>>) super.postorderEnumeration();
+		return new PostorderEnumeration<E>(this);
 	}
-	
-	@SuppressWarnings("unchecked")
-	@Override	
-	public Enumeration<Node<E>> preorderEnumeration() {
-		return (Enumeration<Node<E>>) super.preorderEnumeration();
-	}	
-	
-	@SuppressWarnings("unchecked")
-	@Override	
+
+	/**
+	 * Same as {@link #postorderEnumeration()}
+	 * @return enumeration of the subtree of this node in post-order
+	 */
 	public Enumeration<Node<E>> depthFirstEnumeration() {
-		return (Enumeration<Node<E>>) super.depthFirstEnumeration();
+		return postorderEnumeration();
 	}
-	
-	@SuppressWarnings("unchecked")
-	@Override	
-	public Enumeration<Node<E>> breadthFirstEnumeration() {
-		return (Enumeration<Node<E>>) super.breadthFirstEnumeration();
-	}	
-	
-	@Override	
+
+	@Override
 	public String toString() {
 		StringBuffer s = new StringBuffer();
 		for(int i=0; i<this.getLevel(); i++) {
 			s.append("  ");
 		}
 		s.append(userObject.toString());
-		//s.append(" PARENT: ");
-		//s.append(this.getParent());
 		return s.toString();
 	}
-	
+
 	@Override
 	/**
 	 * Shallow copy of the node, without any parent or children but
@@ -177,9 +274,91 @@ public class Node<E> extends DefaultMutableTreeNode {
 	 * @returns node
 	 */
 	public Node<E> clone() {
-		Node<E> node = new Node<E>();
-		node.setUserObject(this.getUserObject());
-		return node;
+		return new Node<E>(this.getUserObject());
 	}
-	
+
+	/**
+	 * Pre-order enumeration with an explicit stack
+	 */
+	private static class PreorderEnumeration<E>
+	implements Enumeration<Node<E>> {
+
+		private final ArrayList<Node<E>> stack = new ArrayList<Node<E>>();
+
+		public PreorderEnumeration(Node<E> root) {
+			stack.add(root);
+		}
+
+		public boolean hasMoreElements() {
+			return !stack.isEmpty();
+		}
+
+		public Node<E> nextElement() {
+			if (stack.isEmpty()) {
+				throw new NoSuchElementException();
+			}
+			Node<E> node = stack.remove(stack.size() - 1);
+			// push the children right to left, so the left-most is next
+			for (int i = node.getChildCount() - 1; i >= 0; i--) {
+				stack.add(node.children.get(i));
+			}
+			return node;
+		}
+	}
+
+	/**
+	 * Post-order enumeration with an explicit stack
+	 * The stack holds the path from the root to the next node,
+	 * together with the index of the child to continue with
+	 */
+	private static class PostorderEnumeration<E>
+	implements Enumeration<Node<E>> {
+
+		private final ArrayList<Node<E>> stack = new ArrayList<Node<E>>();
+		private int[] childIndex = new int[16];
+
+		public PostorderEnumeration(Node<E> root) {
+			push(root);
+		}
+
+		/**
+		 * Pushes the node and the left-most path below it
+		 */
+		private void push(Node<E> node) {
+			while (true) {
+				if (stack.size() == childIndex.length) {
+					int[] grown = new int[childIndex.length * 2];
+					System.arraycopy(childIndex, 0, grown, 0, childIndex.length);
+					childIndex = grown;
+				}
+				childIndex[stack.size()] = 0;
+				stack.add(node);
+				if (node.isLeaf()) {
+					return;
+				}
+				childIndex[stack.size() - 1] = 1;
+				node = node.children.get(0);
+			}
+		}
+
+		public boolean hasMoreElements() {
+			return !stack.isEmpty();
+		}
+
+		public Node<E> nextElement() {
+			if (stack.isEmpty()) {
+				throw new NoSuchElementException();
+			}
+			Node<E> node = stack.remove(stack.size() - 1);
+			if (!stack.isEmpty()) {
+				int top = stack.size() - 1;
+				Node<E> parent = stack.get(top);
+				if (childIndex[top] < parent.getChildCount()) {
+					push(parent.children.get(childIndex[top]++));
+				}
+			}
+			return node;
+		}
+	}
+
 }
@@ -1,5 +1,7 @@
 package bastings.freval.util;
 
+import bastings.freval.Settings;
+
 public class NodeInfo {
 
 	/**
@@ -27,11 +29,25 @@ public class NodeInfo {
 		this.setName(name);
 	}
 
+	/**
+	 * Construct nodeinfo with name, its symbol ID
+	 * and terminal-specifier
+	 */
+	public NodeInfo(String name, int nameID, boolean terminal) {
+		this.isTerminal = terminal;
+		this.setName(name, nameID);
+	}
+
 	/**
 	 * Name of the node (Label or word)
 	 */
 	private String name;
 
+	/**
+	 * Symbol ID of the name, @see {@link Settings#symbols}
+	 */
+	private int nameID = -1;
+
 	/**
 	 * Index of left-most terminal that this node covers
 	 */
@@ -57,6 +73,14 @@ public class NodeInfo {
 	 * only to be used in the ROOT node
 	 */
 	private int treeID;
+
+	/**
+	 * Official sentence length of a tree of which the delete and quote
+	 * nodes were identified when it was read (a gold tree from a
+	 * treebank cache), -1 for a tree as parsed
+	 * only to be used in the ROOT node
+	 */
+	private int sentenceLength = -1;
 	
 	/**
 	 * True if this a terminal node
@@ -101,6 +125,33 @@ public class NodeInfo {
 		this.treeID = treeID;
 	}
 
+	/**
+	 * Get the official sentence length of a tree that was identified
+	 * when it was read, for a Root Node
+	 * @return the sentence length, -1 if the tree was not identified
+	 */
+	public int getSentenceLength() {
+		return sentenceLength;
+	}
+
+	/**
+	 * Set the official sentence length, for the root of a tree of 
+	 * which the delete and quote nodes are identified
+	 * @param sentenceLength
+	 */
+	public void setSentenceLength(int sentenceLength) {
+		this.sentenceLength = sentenceLength;
+	}
+
+	/**
+	 * Tell if the delete and quote nodes of the tree are identified
+	 * (and the labels simplified) already, for a Root Node
+	 * @return true if the tree was identified when it was read
+	 */
+	public boolean isIdentified() {
+		return sentenceLength >= 0;
+	}
+
 	/**
 	 * Tell if the node matches
 	 * @return true of the node is a match
@@ -257,11 +308,30 @@ public class NodeInfo {
 		return name;
 	}
 
+	/**
+	 * Gets the symbol ID of the name
+	 * @return name ID
+	 */
+	public int getNameID() {
+		return nameID;
+	}
+
 	/**
 	 * Sets the name
 	 */
 	public void setName(String value) {
 		name = value;
+		nameID = Settings.symbols.getID(value);
+	}
+
+	/**
+	 * Sets the name together with its symbol ID
+	 * @param value
+	 * @param id ID of the name in {@link Settings#symbols}
+	 */
+	public void setName(String value, int id) {
+		name = value;
+		nameID = id;
 	}
 	
 	/**
@@ -288,9 +358,10 @@ public class NodeInfo {
 		info.setEnd(end);
 		info.isDeleted = isDeleted;
 		info.isQuote = isQuote;
-		info.setName(name);
+		info.setName(name, nameID);
 		info.setWordID(wordID);
 		info.setTreeID(treeID);
+		info.setSentenceLength(sentenceLength);
 		info.setTerminal(isTerminal);
 		info.setMatches(matches);
 		return info;
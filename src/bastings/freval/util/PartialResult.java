@@ -0,0 +1,134 @@
+package bastings.freval.util;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The totals of an evaluation of part of a treebank (-Dpartial), e.g.
+ * one of several processes that each evaluate a range of lines
+ *
+ * A partial result holds all counts of every {@link Totals} (all
+ * sentences and each cut-off length) and the number of processing
+ * errors. Partial results of all lines merge into the same totals as
+ * an evaluation of all lines at once, so they print the same summary.
+ *
+ * The file has the magic number {@link #MAGIC}, the format
+ * {@link #VERSION}, the number of processing errors and the totals,
+ * @see {@link Totals#write(DataOutput)}
+ */
+public class PartialResult {
+
+	/**
+	 * "FRVP"
+	 */
+	public static final int MAGIC = 0x46525650;
+	public static final int VERSION = 1;
+
+	private final List<Totals> totals;
+	private int processingErrorCount;
+
+	/**
+	 * @param totals the totals, for all sentences first and then
+	 * for every cut-off length
+	 * @param processingErrorCount
+	 */
+	public PartialResult(List<Totals> totals, int processingErrorCount) {
+		this.totals = totals;
+		this.processingErrorCount = processingErrorCount;
+	}
+
+	/**
+	 * @return the totals, for all sentences first and then for every
+	 * cut-off length
+	 */
+	public List<Totals> getTotals() {
+		return totals;
+	}
+
+	/**
+	 * @return the number of processing errors
+	 */
+	public int getProcessingErrorCount() {
+		return processingErrorCount;
+	}
+
+	/**
+	 * Adds the totals and errors of another partial result to this one
+	 * @param other
+	 * @throws RuntimeException if the cut-off lengths are not the same
+	 */
+	public void merge(PartialResult other) {
+
+		if (other.totals.size() != totals.size()) {
+			throw new RuntimeException(String.format(
+					"Can not merge results with different cut-off lengths " +
+					"(%d|%d totals)", totals.size(), other.totals.size()));
+		}
+
+		for (int i = 0; i < totals.size(); i++) {
+			totals.get(i).merge(other.totals.get(i));
+		}
+		processingErrorCount += other.processingErrorCount;
+	}
+
+	/**
+	 * Writes this result to a file
+	 * @param filename
+	 * @throws IOException
+	 */
+	public void write(String filename) throws IOException {
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(filename)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(processingErrorCount);
+			out.writeInt(totals.size());
+			for (Totals t : totals) {
+				t.write(out);
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Reads a result from a file
+	 * @param filename
+	 * @return result
+	 * @throws FileNotFoundException
+	 * @throws IOException if the file is not a partial result
+	 */
+	public static PartialResult read(String filename) throws IOException {
+
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(filename)));
+		try {
+			if (in.readInt() != MAGIC) {
+				throw new IOException("Not a partial result: " + filename);
+			}
+			int version = in.readInt();
+			if (version != VERSION) {
+				throw new IOException(String.format(
+						"Unknown partial result version %d: %s",
+						version, filename));
+			}
+
+			int processingErrorCount = in.readInt();
+			int count = in.readInt();
+			List<Totals> totals = new ArrayList<Totals>(count);
+			for (int i = 0; i < count; i++) {
+				totals.add(Totals.read(in));
+			}
+			return new PartialResult(totals, processingErrorCount);
+
+		} catch (EOFException e) {
+			throw new IOException("Incomplete partial result: " + filename);
+		} finally {
+			in.close();
+		}
+	}
+
+}
@@ -0,0 +1,117 @@
+package bastings.freval.util;
+
+import java.util.Arrays;
+
+/**
+ * Indexes the nodes of a tree by their span (start, end)
+ *
+ * Nodes with the same span (e.g. unary chains) are kept in a bucket,
+ * in pre-order. The buckets hold the node numbers and not just their 
+ * labels, so the index does not depend on whether we compare labels or not.
+ *
+ * The spans are packed into a long key and looked up in an open
+ * addressing hash table, so a lookup does not create any objects.
+ *
+ * <b>ASSUME: start and end were set for every node
+ * (@see {@link TreeFunctions#reduceForEvaluation(Node)}) before the
+ * {@link ArrayTree} was built, {@link Brackets} have them already</b>
+ */
+public class SpanIndex {
+
+	/**
+	 * Number of the next node in the same bucket, or -1
+	 */
+	private int[] next;
+
+	/**
+	 * Hash table from packed span to the first (and last) node of
+	 * the bucket for that span
+	 */
+	private long[] keys;
+	private int[] first;
+	private int[] last;
+
+	/**
+	 * Build the index for all nodes of the tree
+	 * @param tree
+	 */
+	public SpanIndex(Spans tree) {
+
+		int size = tree.size();
+		next = new int[size];
+
+		// table size: power of two, at most half full
+		int capacity = 4;
+		while (capacity < 2 * size) {
+			capacity <<= 1;
+		}
+		keys = new long[capacity];
+		first = new int[capacity];
+		last = new int[capacity];
+		Arrays.fill(first, -1);
+
+		for (int i = 0; i < size; i++) {
+
+			next[i] = -1;
+
+			long key = pack(tree.getStart(i), tree.getEnd(i));
+			int slot = slot(key);
+			if (first[slot] == -1) {
+				keys[slot] = key;
+				first[slot] = i;
+			} else {
+				next[last[slot]] = i; // append, to keep the pre-order
+			}
+			last[slot] = i;
+		}
+	}
+
+	/**
+	 * Returns the first node with the specified span
+	 * @param start
+	 * @param end
+	 * @return node number or -1 if no node has this span
+	 */
+	public int first(int start, int end) {
+		return first[slot(pack(start, end))];
+	}
+
+	/**
+	 * Returns the next node with the same span as the specified node
+	 * @param node
+	 * @return node number or -1 if there are no more nodes with this span
+	 */
+	public int next(int node) {
+		return next[node];
+	}
+
+	/**
+	 * Packs a span in a single key
+	 * @param start
+	 * @param end
+	 * @return key
+	 */
+	private static long pack(int start, int end) {
+		return ((long) start << 32) | (end & 0xffffffffL);
+	}
+
+	/**
+	 * Returns the slot in the hash table of the key, which is either
+	 * the slot holding the key or the empty slot where it should go
+	 * @param key
+	 * @return slot
+	 */
+	private int slot(long key) {
+
+		int mask = keys.length - 1;
+		long h = key * 0x9E3779B97F4A7C15L;
+		int slot = (int) (h ^ (h >>> 32)) & mask;
+
+		while (first[slot] != -1 && keys[slot] != key) {
+			slot = (slot + 1) & mask;
+		}
+
+		return slot;
+	}
+
+}
@@ -0,0 +1,27 @@
+package bastings.freval.util;
+
+/**
+ * Nodes numbered in pre-order, starting with 0 at our own root element,
+ * that each cover a span of words (the same numbering and spans in an
+ * {@link ArrayTree} and in {@link Brackets})
+ */
+public interface Spans {
+
+	/**
+	 * @return the number of nodes
+	 */
+	public int size();
+
+	/**
+	 * @param node
+	 * @return index of the first word the node covers
+	 */
+	public int getStart(int node);
+
+	/**
+	 * @param node
+	 * @return index after the last word the node covers
+	 */
+	public int getEnd(int node);
+
+}
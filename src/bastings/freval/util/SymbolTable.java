@@ -0,0 +1,238 @@
+package bastings.freval.util;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Gives every label and word an int ID, the same string always gets the
+ * same ID during a run, so labels and words can be compared as ints
+ *
+ * The labels and words in the settings are interned first, so their
+ * properties are known up front: whether a label is a delete label,
+ * a delete label for length or a quote label, and whether a word is a
+ * quote word. Equivalent labels (and words) share a canonical ID, two
+ * labels are equal iff their canonical IDs are equal.
+ *
+ * Symbols are interned while trees are read, possibly on several threads
+ * at the same time, so interning is thread safe. Everything else does not
+ * change after construction.
+ */
+public class SymbolTable {
+
+	/**
+	 * Words that make a quote term together with a quote label
+	 */
+	private static final String[] QUOTE_WORDS = { "'", "\"", "/" };
+
+	/**
+	 * IDs of all symbols interned so far
+	 */
+	private final ConcurrentHashMap<String, Integer> ids =
+		new ConcurrentHashMap<String, Integer>();
+	private int count = 0;
+
+	/**
+	 * The symbols by ID (replaced by a larger copy when it is full,
+	 * a symbol is stored before its ID is published)
+	 */
+	private volatile String[] symbols = new String[256];
+
+	private final BitSet deleteLabels = new BitSet();
+	private final BitSet deleteLabelsForLength = new BitSet();
+	private final BitSet quoteLabels = new BitSet();
+	private final BitSet quoteWords = new BitSet();
+
+	/**
+	 * Canonical IDs of the symbols in the settings (symbols interned later
+	 * are their own canonical ID)
+	 */
+	private final int[] canonicalLabels;
+	private final int[] canonicalWords;
+
+	/**
+	 * Builds the symbol table for the labels and words in the settings
+	 * @param deleteLabels
+	 * @param deleteLabelsForLength
+	 * @param quoteLabels
+	 * @param equivalentLabels pairs of equivalent labels
+	 * @param equivalentWords pairs of equivalent words
+	 */
+	public SymbolTable(List<String> deleteLabels,
+			List<String> deleteLabelsForLength, List<String> quoteLabels,
+			List<String[]> equivalentLabels, List<String[]> equivalentWords) {
+
+		for (String s : deleteLabels) {
+			this.deleteLabels.set(getID(s));
+		}
+		for (String s : deleteLabelsForLength) {
+			this.deleteLabelsForLength.set(getID(s));
+		}
+		for (String s : quoteLabels) {
+			this.quoteLabels.set(getID(s));
+		}
+		for (String s : QUOTE_WORDS) {
+			this.quoteWords.set(getID(s));
+		}
+
+		canonicalLabels = canonicalIDs(equivalentLabels);
+		canonicalWords = canonicalIDs(equivalentWords);
+	}
+
+	/**
+	 * Returns the ID of a symbol, a new symbol gets the next free ID
+	 * @param symbol label or word
+	 * @return ID
+	 */
+	public int getID(String symbol) {
+
+		Integer id = ids.get(symbol);
+
+		if (id == null) {
+			synchronized (this) {
+				id = ids.get(symbol);
+				if (id == null) {
+					id = count++;
+					String[] s = symbols;
+					if (id == s.length) {
+						s = Arrays.copyOf(s, 2 * s.length);
+					}
+					s[id] = symbol;
+					symbols = s;
+					ids.put(symbol, id);
+				}
+			}
+		}
+
+		return id;
+	}
+
+	/**
+	 * Returns the symbol with the specified ID
+	 * @param id ID returned by {@link #getID(String)}
+	 * @return label or word
+	 */
+	public String getSymbol(int id) {
+		return symbols[id];
+	}
+
+	/**
+	 * Returns the ID of a symbol without interning it
+	 * @param symbol
+	 * @return ID or -1 if the symbol was never interned
+	 */
+	public int lookup(String symbol) {
+		Integer id = ids.get(symbol);
+		return id == null ? -1 : id;
+	}
+
+	/**
+	 * @param label label ID
+	 * @return true if nodes with this label are deleted before evaluation
+	 */
+	public boolean isDeleteLabel(int label) {
+		return label >= 0 && deleteLabels.get(label);
+	}
+
+	/**
+	 * @param label label ID
+	 * @return true if words below this label do not count for the length
+	 */
+	public boolean isDeleteLabelForLength(int label) {
+		return label >= 0 && deleteLabelsForLength.get(label);
+	}
+
+	/**
+	 * @param label label ID
+	 * @param word word ID
+	 * @return true if the label and word together make a quote term
+	 */
+	public boolean isQuoteTerm(int label, int word) {
+		return label >= 0 && word >= 0 &&
+			quoteLabels.get(label) && quoteWords.get(word);
+	}
+
+	/**
+	 * @param label1 label ID
+	 * @param label2 label ID
+	 * @return true if the labels are equal or equivalent
+	 */
+	public boolean areEqualLabels(int label1, int label2) {
+		return label1 == label2 || canonical(canonicalLabels, label1) ==
+			canonical(canonicalLabels, label2);
+	}
+
+	/**
+	 * @param word1 word ID
+	 * @param word2 word ID
+	 * @return true if the words are equal or equivalent
+	 */
+	public boolean areEqualWords(int word1, int word2) {
+		return word1 == word2 || canonical(canonicalWords, word1) ==
+			canonical(canonicalWords, word2);
+	}
+
+	/**
+	 * @return the number of symbols interned so far
+	 */
+	public int size() {
+		return ids.size();
+	}
+
+	/**
+	 * Returns the canonical ID of a symbol
+	 * @param canonical canonical IDs
+	 * @param id
+	 * @return canonical ID
+	 */
+	private static int canonical(int[] canonical, int id) {
+		return id >= 0 && id < canonical.length ? canonical[id] : id;
+	}
+
+	/**
+	 * Computes the canonical ID of every symbol interned so far,
+	 * symbols in the same equivalence class get the lowest ID in the class
+	 * (equivalence is symmetric and transitive)
+	 * @param pairs pairs of equivalent symbols, e.g. "ADVP===PRT"
+	 * @return canonical IDs
+	 */
+	private int[] canonicalIDs(List<String[]> pairs) {
+
+		// intern the symbols first, so they all fit in the array
+		for (String[] pair : pairs) {
+			if (pair.length == 2) {
+				getID(pair[0]);
+				getID(pair[1]);
+			}
+		}
+
+		int[] canonical = new int[count];
+		for (int i = 0; i < canonical.length; i++) {
+			canonical[i] = i;
+		}
+
+		// union-find, with the lower ID as root
+		for (String[] pair : pairs) {
+			if (pair.length == 2) {
+				int a = find(canonical, getID(pair[0]));
+				int b = find(canonical, getID(pair[1]));
+				canonical[Math.max(a, b)] = Math.min(a, b);
+			}
+		}
+
+		for (int i = 0; i < canonical.length; i++) {
+			canonical[i] = find(canonical, i);
+		}
+
+		return canonical;
+	}
+
+	private static int find(int[] parent, int id) {
+		while (parent[id] != id) {
+			id = parent[id];
+		}
+		return id;
+	}
+
+}
@@ -1,8 +1,10 @@
 package bastings.freval.util;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 
+import bastings.freval.evaluator.BudgetEvaluationInfo;
 import bastings.freval.evaluator.DefaultEvaluationInfo;
 import bastings.freval.evaluator.ErrorEvaluationInfo;
 import bastings.freval.evaluator.EvaluationInfo;
@@ -26,6 +28,7 @@ public class Totals {
 	private int sentCount;   // Sentence count
 	private int errorCount;  // Error sentence count
 	private int skipCount;   // Skipped sentence count
+	private int budgetCount; // Over enumeration budget sentence count
 	private int completeMatchCount; // Complete match sent count
 	private int wordCount;   // Total word count
 	private int noCrossingCount;        // no crossing sent count
@@ -34,15 +37,15 @@ public class Totals {
 	private int crossingCount; // total number of crossing
 
 	/**
-	 * We store the counts for each fragment size
-	 * At start, we reserve space for size up to 70
-	 * If larger fragments are found, the space will be extended
+	 * The enumeration budget of a sentence, as printed in the summary
+	 * (null if there is no budget)
 	 */
-	private static int INITIAL_COUNTS_CAPACITY = 70;
+	private String enumerationBudget = null;
 
-	List<Integer> matchedFragmentCountByFragmentSize;
-	List<Integer> goldFragmentCountByFragmentSize;
-	List<Integer> testFragmentCountByFragmentSize;
+	/**
+	 * Gold, test and matched fragment counts for each fragment size
+	 */
+	private final FragmentCounts counts = new FragmentCounts();
 
 	/**
 	 * By default, don't use any cutoffLength (-1)
@@ -58,18 +61,11 @@ public class Totals {
 
 		this.cutOffLength = cutOffLength;
 
-		// init fragment count containers
-		this.matchedFragmentCountByFragmentSize = new
-		ArrayList<Integer>(INITIAL_COUNTS_CAPACITY);
-		this.goldFragmentCountByFragmentSize = new
-		ArrayList<Integer>(INITIAL_COUNTS_CAPACITY);
-		this.testFragmentCountByFragmentSize = new
-		ArrayList<Integer>(INITIAL_COUNTS_CAPACITY);
-
 		// var init
 		this.sentCount = 0;
 		this.errorCount = 0;
 		this.skipCount = 0;
+		this.budgetCount = 0;
 		this.completeMatchCount = 0;
 		this.wordCount = 0;
 		this.noCrossingCount = 0;
@@ -92,6 +88,14 @@ public class Totals {
 		this.cutOffLength = cutOffLength;
 	}
 
+	/**
+	 * @param enumerationBudget the enumeration budget to print in the
+	 * summary, e.g. "1000000 fragments", null for none
+	 */
+	public void setEnumerationBudget(String enumerationBudget) {
+		this.enumerationBudget = enumerationBudget;
+	}
+
 	/**
 	 * Add an Error-result to the totals, if the sentence length
 	 * is <= cut-off length, or if the length does not matter
@@ -132,12 +136,6 @@ public class Totals {
 			this.sentCount++;
 			this.errorCount++;
 		}
-		
-		// only print this once
-		if (cutOffLength == -1) {
-			System.err.println(result.getTreeID() + " : " + 
-					result.getMessage());
-		}
 	}
 
 	/**
@@ -155,6 +153,22 @@ public class Totals {
 		}
 	}
 
+	/**
+	 * Adds a result that exceeded the enumeration budget to the totals, 
+	 * when the sentence length is small enough (or when it does not mater)
+	 * Its counts are complete, so they are added like a default result
+	 * @param result
+	 */
+	public void addResult(BudgetEvaluationInfo result) {
+
+		if ((cutOffLength == -1) || 
+				(result.getSentenceLength() <= cutOffLength)) {
+			this.budgetCount++;
+		}
+
+		this.addResult( (DefaultEvaluationInfo) result);
+	}
+
 	/**
 	 * Adds a default result to the totals, when the sentence length
 	 * is small enough (or when it does not mater)
@@ -167,31 +181,14 @@ public class Totals {
 
 			this.sentCount++;
 
-			while (this.goldFragmentCountByFragmentSize.size() < 
-					result.goldFragmentCountByFragmentSize.size()) {
-				this.goldFragmentCountByFragmentSize.add(0);
-				this.testFragmentCountByFragmentSize.add(0);
-				this.matchedFragmentCountByFragmentSize.add(0);
-			}
+			counts.addAll(result.getCounts());
 
-			for(int i = 0; i < result.goldFragmentCountByFragmentSize.size(); 
-			i++) {
-				this.goldFragmentCountByFragmentSize.set(i, 
-						this.goldFragmentCountByFragmentSize.get(i) + result.
-						goldFragmentCountByFragmentSize.get(i));
-				this.testFragmentCountByFragmentSize.set(i, 
-						this.testFragmentCountByFragmentSize.get(i) + result.
-						testFragmentCountByFragmentSize.get(i));
-				this.matchedFragmentCountByFragmentSize.set(i, 
-						this.matchedFragmentCountByFragmentSize.get(i) + result.
-						matchedFragmentCountByFragmentSize.get(i));				
-			}
-			
 			// check for complete match
-			if(result.goldFragmentCountByFragmentSize.get(0) == 
-				result.testFragmentCountByFragmentSize.get(0) &&
-				result.testFragmentCountByFragmentSize.get(0) ==
-					result.matchedFragmentCountByFragmentSize.get(0)) {
+			FragmentCounts resultCounts = result.getCounts();
+			if(resultCounts.areEqual(FragmentCounts.GOLD, 
+					FragmentCounts.TEST, 1) &&
+					resultCounts.areEqual(FragmentCounts.TEST, 
+							FragmentCounts.MATCHED, 1)) {
 				completeMatchCount++;
 			}
 
@@ -222,7 +219,9 @@ public class Totals {
 	 * @param result
 	 */
 	public void addResult(EvaluationInfo result) {
-		if (result instanceof DefaultEvaluationInfo) {
+		if (result instanceof BudgetEvaluationInfo) {
+			this.addResult( (BudgetEvaluationInfo) result);
+		} else if (result instanceof DefaultEvaluationInfo) {
 			this.addResult( (DefaultEvaluationInfo) result);
 		} else if (result instanceof ErrorEvaluationInfo) {
 			this.addResult( (ErrorEvaluationInfo) result);
@@ -236,6 +235,97 @@ public class Totals {
 
 	}
 
+	/**
+	 * Adds all the counts of another Totals instance to this one
+	 * (e.g. totals that were kept separately by several threads)
+	 * Both must have the same cut-off length.
+	 * @param other
+	 */
+	public void merge(Totals other) {
+
+		if (other.cutOffLength != this.cutOffLength) {
+			throw new RuntimeException(String.format(
+					"Can not merge totals with different cut-off lengths " +
+					"(%d|%d)", this.cutOffLength, other.cutOffLength));
+		}
+
+		this.sentCount += other.sentCount;
+		this.errorCount += other.errorCount;
+		this.skipCount += other.skipCount;
+		this.budgetCount += other.budgetCount;
+		this.completeMatchCount += other.completeMatchCount;
+		this.wordCount += other.wordCount;
+		this.noCrossingCount += other.noCrossingCount;
+		this.twoOrLessCrossingCount += other.twoOrLessCrossingCount;
+		this.correctTagCount += other.correctTagCount;
+		this.crossingCount += other.crossingCount;
+
+		counts.addAll(other.counts);
+
+		if (this.enumerationBudget == null) {
+			this.enumerationBudget = other.enumerationBudget;
+		}
+	}
+
+	/**
+	 * Writes all counts, so the totals can be read back exactly
+	 * (e.g. the totals of part of a treebank, to be merged later)
+	 * @param out
+	 * @throws IOException
+	 */
+	public void write(DataOutput out) throws IOException {
+
+		out.writeInt(cutOffLength);
+
+		out.writeInt(sentCount);
+		out.writeInt(errorCount);
+		out.writeInt(skipCount);
+		out.writeInt(budgetCount);
+		out.writeInt(completeMatchCount);
+		out.writeInt(wordCount);
+		out.writeInt(noCrossingCount);
+		out.writeInt(twoOrLessCrossingCount);
+		out.writeInt(correctTagCount);
+		out.writeInt(crossingCount);
+
+		out.writeBoolean(enumerationBudget != null);
+		if (enumerationBudget != null) {
+			out.writeUTF(enumerationBudget);
+		}
+
+		counts.write(out);
+	}
+
+	/**
+	 * Reads totals written by {@link #write(DataOutput)}
+	 * @param in
+	 * @return totals
+	 * @throws IOException
+	 */
+	public static Totals read(DataInput in) throws IOException {
+
+		Totals totals = new Totals(in.readInt());
+
+		totals.sentCount = in.readInt();
+		totals.errorCount = in.readInt();
+		totals.skipCount = in.readInt();
+		totals.budgetCount = in.readInt();
+		totals.completeMatchCount = in.readInt();
+		totals.wordCount = in.readInt();
+		totals.noCrossingCount = in.readInt();
+		totals.twoOrLessCrossingCount = in.readInt();
+		totals.correctTagCount = in.readInt();
+		totals.crossingCount = in.readInt();
+
+		if (in.readBoolean()) {
+			totals.enumerationBudget = in.readUTF();
+		}
+
+		totals.counts.read(in);
+
+		return totals;
+	}
+
 	public String toString() {
 
 		StringBuffer sb = new StringBuffer();
@@ -269,6 +359,12 @@ public class Totals {
 				"Number of Skip  sentence  = %6d\n", skipCount));
 		sb.append(String.format(
 				"Number of Valid sentence  = %6d\n", validSentCount));
+		if (enumerationBudget != null) {
+			sb.append(String.format(
+					"Enumeration budget        = %s\n", enumerationBudget));
+			sb.append(String.format(
+					"Number of Budget sentence = %6d\n", budgetCount));
+		}
 		sb.append(String.format(
 				"Complete match            = %6.2f\n", 
 				(validSentCount > 0 ? 100.0 * 
@@ -300,25 +396,24 @@ public class Totals {
 				"Matched", "GoldFrag", "TestFrag"));		
 
 		// print recall, precision, F1 for each N (fragment size)
-		for(int i = 0; i < matchedFragmentCountByFragmentSize.size(); i++) {
+		for(int i = 0; i < counts.size(); i++) {
 
 			double r = 0.0;
 			double p = 0.0;
 			double f = 0.0;
 			double alpha = 0.0;
 
-			if (goldFragmentCountByFragmentSize.get(i) > 0 &&
-					testFragmentCountByFragmentSize.get(i) > 0) {
+			double matched = counts.getDouble(FragmentCounts.MATCHED, i + 1);
+			double gold = counts.getDouble(FragmentCounts.GOLD, i + 1);
+			double test = counts.getDouble(FragmentCounts.TEST, i + 1);
+
+			if (gold > 0 && test > 0) {
 
 				// recall
-				r = (goldFragmentCountByFragmentSize.get(i) > 0 ?
-						100.0 * matchedFragmentCountByFragmentSize.get(i) /
-						(double) goldFragmentCountByFragmentSize.get(i) : 0.0);
+				r = (gold > 0 ? 100.0 * matched / gold : 0.0);
 
 				// precision
-				p = (testFragmentCountByFragmentSize.get(i) > 0 ?
-						100.0 * matchedFragmentCountByFragmentSize.get(i) /
-						(double) testFragmentCountByFragmentSize.get(i) : 0.0);
+				p = (test > 0 ? 100.0 * matched / test : 0.0);
 
 				// F1 measure
 				f = 2 * p * r / (p + r);
@@ -327,7 +422,7 @@ public class Totals {
 				// weight for interpolation of precision & recall for the 
 				// various N's
 				// uniform distribution for now
-				alpha = 1.0 / (double)matchedFragmentCountByFragmentSize.size();
+				alpha = 1.0 / (double)counts.size();
 
 				// add this N's recall and precision to the accumulative score over all
 				// N's with alpha as weight
@@ -337,9 +432,9 @@ public class Totals {
 				sb.append(String.format(
 						"%4d    %6.2f    %6.2f    %6.2f    %1.6f    " +
 						"%8d    %8d    %8d\n", (i+1), r, p, f, alpha,
-						matchedFragmentCountByFragmentSize.get(i),
-						goldFragmentCountByFragmentSize.get(i),
-						testFragmentCountByFragmentSize.get(i)));					
+						counts.getNumber(FragmentCounts.MATCHED, i + 1),
+						counts.getNumber(FragmentCounts.GOLD, i + 1),
+						counts.getNumber(FragmentCounts.TEST, i + 1)));					
 
 			}
 		}
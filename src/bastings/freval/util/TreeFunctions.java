@@ -2,110 +2,35 @@ package bastings.freval.util;
 
 import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Enumeration;
 import java.util.List;
 
+import bastings.freval.EvaluationConfig;
 import bastings.freval.Settings;
 
 public class TreeFunctions {
 
-	/**
-	 * Returns true if the specified label is a 
-	 * label indicated for deletion by {@link Settings#deleteLabels}
-	 * @param label
-	 * @return if this is a delete label
-	 */
-	public static boolean isDeleteLabel(String label) {
-
-		for (String dl : Settings.deleteLabels) {
-			if (label.equals(dl)) {
-				return true;
-			}
-		}
-
-		return false;
-	}
-
-	/**
-	 * Returns true if the specified labels are equal as defined by the
-	 * settings' equivalentLabels
-	 * @see {@link Settings#equivalentLabels}
-	 * @param label1
-	 * @param label2
-	 * @return true iff labels are equal
-	 */
-	public static boolean areEqualLabels(String label1, String label2) {
-
-		if (label1.equals(label2)) {
-			return true;
-		}
-
-		for (String[] equal : Settings.equivalentLabels) {
-			if ((label1.equals(equal[0]) && label2.equals(equal[1])) ||
-					(label1.equals(equal[1]) && label2.equals(equal[0])) ) {
-				return true;
-			}
-		}
-
-		return false;
-	}	
-
-	/**
-	 * Returns whether the specified label is to be 
-	 * deleted when computing the length of the sentence
-	 * (the yield of the tree)
-	 * @param label
-	 * @return is this a delete label or not
-	 */
-	public static boolean isDeleteLabelForLength(String label) {
-
-		for (String dll : Settings.deleteLabelsForLength) {
-			if (label.equals(dll)) {
-				return true;
-			}
-		}
-
-		return false;
-	}
-
-	/**
-	 * Returns whether the specified label and word make a Quote Term together
-	 * @param label node label
-	 * @param word the terminal below the node of the specified label
-	 * @return whether this is a quote term
-	 */
-	public static boolean isQuoteTerm(String label, String word) {
-
-		for(String ql : Settings.quoteLabels) {
-			if (label.equals(ql)) {
-				if (word.equals("'") 
-						|| word.equals("\"") 
-						|| word.equals("/")) {
-					return true;
-				}
-			}
-		}
-
-		return false;
-	}	
-
 	/**
 	 * Returns the number of leafs not counting the leafs
 	 * where the parent has a label that is positive for
 	 * isDeleteLabelForLength
+	 * @param root
+	 * @param config
 	 * @return
 	 */
-	static public int getOfficialSentenceLength(Node<NodeInfo> root) {
+	static public int getOfficialSentenceLength(Node<NodeInfo> root,
+			EvaluationConfig config) {
 		if (root == null) return 0;
+		SymbolTable symbols = config.getSymbols();
 		Enumeration<Node<NodeInfo>> en = root.depthFirstEnumeration();
 		int count = 0;
 
 		while ( en.hasMoreElements() ) {
 			Node<NodeInfo> node = en.nextElement();
 			NodeInfo info = node.getUserObject();
-			if (info.isTerminal() && !TreeFunctions.isDeleteLabelForLength(
-					node.getParent().getUserObject().
-					getName())) {
+			if (info.isTerminal() && !symbols.isDeleteLabelForLength(
+					node.getParent().getUserObject().getNameID())) {
 				count++;
 			}
 		}
@@ -114,88 +39,78 @@ public class TreeFunctions {
 	}
 
 	/**
-	 * Returns the number of leafs with parents that have NOT been deleted
-	 * @return
+	 * Returns the leafs with parents that have NOT been deleted
+	 * @param root
+	 * @return the leafs, in order
 	 */
-	static public int getRealLeafCount(Node<NodeInfo> root) {
-		if (root == null) return 0;
+	static public List<Node<NodeInfo>> getRealLeafs(Node<NodeInfo> root) {
+		List<Node<NodeInfo>> leafs = new ArrayList<Node<NodeInfo>>();
+		if (root == null) return leafs;
 		Enumeration<Node<NodeInfo>> en = root.depthFirstEnumeration();
-		int count = 0;
 		while ( en.hasMoreElements() ) {
 			Node<NodeInfo> node = en.nextElement();
 			if (node.isLeaf()) {
 				if (!node.getParent().getUserObject().isDeleted()) {
-					count++;
+					leafs.add(node);
 				}
 			}
 		}
-		return count;
-	}	
+		return leafs;
+	}
 
 	/**
-	 * Compares the leafs of 2 trees
-	 * Assume: the amount of leafs are the same
+	 * Compares two lists of leafs, e.g. from 
+	 * {@link #identifyDeleteAndQuoteNodes(Node, EvaluationConfig)}
+	 * @param goldLeafs
+	 * @param testLeafs
+	 * @param config
 	 * @return the first pair of leafs that mismatch, as "(a|b)" or null if no
 	 * mismatch was found
 	 */
-	public static String firstLeafMismatch(
-			Node<NodeInfo> goldTree, Node<NodeInfo> testTree) {
+	public static String firstLeafMismatch(List<Node<NodeInfo>> goldLeafs,
+			List<Node<NodeInfo>> testLeafs, EvaluationConfig config) {
 
-		// paranoid check to be sure the amount of leafs are the same
 		// yields cannot be identical if leaf count differs, so
-		// return unknown mismatch, because if we continue
-		// we are not sure to find a mismatch
-		if (getRealLeafCount(goldTree) != getRealLeafCount(testTree)) {
+		// return unknown mismatch
+		if (goldLeafs.size() != testLeafs.size()) {
 			return "(?????|?????)";
 		}
 
-		// check for word unmatch
-		Enumeration<Node<NodeInfo>> goldEnum = goldTree.depthFirstEnumeration();
-		Enumeration<Node<NodeInfo>> testEnum = testTree.depthFirstEnumeration();
-
-		// for each leaf in goldTree that is not deleted
-		while (goldEnum.hasMoreElements()) {
-
-			Node<NodeInfo> gn = goldEnum.nextElement();
-			if (gn.isLeaf() && !gn.getParent().getUserObject().isDeleted()) {
-
-				// find the next leaf in the test tree
-				// to compare the current gold leaf with
-				// and stop looping after it was found
-				while ( testEnum.hasMoreElements()) {
-					Node<NodeInfo> tn = testEnum.nextElement();
-					if (tn.isLeaf() && 
-							!tn.getParent().getUserObject().isDeleted()) {
-						if(!gn.getUserObject().getName().equals(
-								tn.getUserObject().getName())) {
-							return String.format("(%s|%s)",
-									gn.getUserObject().getName(),
-									tn.getUserObject().getName());	
-						}
-						break; // break out of test leaf search
-					}
-				}
+		SymbolTable symbols = config.getSymbols();
+
+		for (int i = 0; i < goldLeafs.size(); i++) {
+			NodeInfo gi = goldLeafs.get(i).getUserObject();
+			NodeInfo ti = testLeafs.get(i).getUserObject();
+			if(!symbols.areEqualWords(gi.getNameID(), ti.getNameID())) {
+				return String.format("(%s|%s)", gi.getName(), ti.getName());
 			}
-		} // end while
+		}
 
-		// if we reach here, all the leafs matched (no mismatch)
 		return null;
 	}
 
 	/**
-	 * Sets nodes to isDeleted() when the Settings indicate they should be;
-	 * Also sets nodes to isQuote() when the Settings indicate so;
+	 * Sets nodes to isDeleted() when the config indicates they should be;
+	 * Also sets nodes to isQuote() when the config indicates so;
 	 * 
-	 * <b>Note: this function modifies labels if indicated by Settings
-	 * (Freval.adjustLabels)</b>
+	 * <b>Note: this function modifies labels if indicated by the
+	 * configuration (Freval.adjustLabels)</b>
 	 * 
 	 * <b>Note: nodes that do not cover any word span (anymore) are deleted,
 	 * that is, a node with word span <x, x> is marked for deletion</b>
 * TODO 
 	 * 
 	 * @param tree
+	 * @param config
+	 * @return the leafs with parents that have NOT been deleted, in order
+	 * (the same leafs as {@link #getRealLeafs(Node)})
 	 */
-	public static void identifyDeleteAndQuoteNodes(Node<NodeInfo> tree) {
+	public static List<Node<NodeInfo>> identifyDeleteAndQuoteNodes(
+			Node<NodeInfo> tree, EvaluationConfig config) {
+
+		SymbolTable symbols = config.getSymbols();
+
+		List<Node<NodeInfo>> realLeafs = new ArrayList<Node<NodeInfo>>();
 
 		// get a depth-first enumeration
 		Enumeration<Node<NodeInfo>> en = tree.depthFirstEnumeration();
@@ -210,7 +125,7 @@ public class TreeFunctions {
 
 			if (!node.isLeaf()) { // non-terminal
 
-				String label = node.getUserObject().getName();
+				int labelID = node.getUserObject().getNameID();
 
 				// delete nodes covering nothing
 				//if (node.getUserObject().getStart() == 
@@ -222,75 +137,44 @@ public class TreeFunctions {
 				// modify label (e.g. "NP-SUBJ" becomes "NP")
 				// Note: in ParseEval/evalb labels are modified before
 				// they are matched with deleteLabels, we do the same
-				node.getUserObject().setName(simplifyLabel(label));				
+				int simplified = config.getSimplifiedLabel(labelID);
+				if (simplified != labelID) {
+					node.getUserObject().setName(
+							symbols.getSymbol(simplified), simplified);
+				}
 
 				// identify delete label
-				if (isDeleteLabel(label)) {
+				if (symbols.isDeleteLabel(labelID)) {
 					node.getUserObject().setDeleted(true);
 				}
 
 			} else { // leaf / terminal / word
 
-				String word  = node.getUserObject().getName();
-				String parentLabel = node.getParent().getUserObject().getName();
+				int word  = node.getUserObject().getNameID();
+				int parentLabel = node.getParent().getUserObject().getNameID();
 				
 				// identify Quote-node and terminal
-				if (isQuoteTerm(parentLabel, word)) {
+				if (symbols.isQuoteTerm(parentLabel, word)) {
 					// Note: we only indicate a quote at the parent node
 					node.getParent().getUserObject().setQuote(true);
 				}
 
 				// if pre-terminal parent deleted, also delete the terminal
-				if(isDeleteLabel(parentLabel)) {
+				if(symbols.isDeleteLabel(parentLabel)) {
 					node.getUserObject().setDeleted(true);
 				}
-			}
-		}
-
-	}
 
-	/**
-	 * Identify nodes with empty word spans (start word index== end word index)
-	 * Nodes found get the isDeleted marker
-	 */
-	public static void identifyEmptySpanNodes(Node<NodeInfo> tree) {
-		
-		Enumeration<Node<NodeInfo>> en = tree.depthFirstEnumeration();
-		
-		while(en.hasMoreElements()) {
-			
-			Node<NodeInfo> node = en.nextElement();
-			if (node.getUserObject().getStart() == node.getUserObject()
-					.getEnd()) {
-				node.getUserObject().setDeleted(true);
-				if (Settings.debug > 4) {
-					System.err.println(String.format(
-							"  EMPTY-SPAN-NODE start=%d, end=%d, node=%s", 
-							node.getUserObject().getStart(), 
-							node.getUserObject().getEnd(), 
-							node.getUserObject()));
+				// the parent comes after its children, but it will be 
+				// deleted for the same label (our own root is never)
+				if (!node.getParent().getUserObject().isDeleted() &&
+						(node.getParent().isRoot() || 
+								!symbols.isDeleteLabel(parentLabel))) {
+					realLeafs.add(node);
 				}
 			}
-	
 		}
-		
-	}
 
-	/**
-	 * Returns the part of the node label before a possible - (dash)
-	 * e.g. "NP-SUBJ" becomes "NP"
-	 * <b>Note: hard-coded exception for "-NONE-", which is returned as-is</b>
-	 * @param label
-	 * @return simplified label
-	 */
-	public static String simplifyLabel(String label) {
-		if ((!label.equals("-NONE-")) && 
-				(Settings.getBoolean("adjustLabels"))) {
-			return label.split("[-=]", 2)[0];
-		}
-		else {
-			return label;
-		}		
+		return realLeafs;
 	}
 
 	/**
@@ -317,62 +201,50 @@ public class TreeFunctions {
 	 * Fixes quotes, which means if a quote-node was deleted in the gold tree,
 	 * but not in the test tree, the node is reinserted into gold.
 	 * And vice versa.
+	 * 
+	 * A gold and a test quote-node are compared if they follow the same
+	 * number of undeleted, non-quote terminals. The quote-nodes of both
+	 * trees are collected in one walk each, with that number, and then
+	 * merged: for every gold quote-node (in depth-first order) the test 
+	 * quote-nodes with the same number are compared (in depth-first order).
 	 * @param goldTree
 	 * @param testTree
 	 */
 	public static void fixQuotes(Node<NodeInfo> goldTree, 
 			Node<NodeInfo> testTree) {
 
-		// get a depth-first enumeration
-		Enumeration<Node<NodeInfo>> goldEn = goldTree.depthFirstEnumeration();
+		List<Node<NodeInfo>> goldQuotes = new ArrayList<Node<NodeInfo>>();
+		List<Node<NodeInfo>> testQuotes = new ArrayList<Node<NodeInfo>>();
+		int[] goldWids = getQuoteNodes(goldTree, goldQuotes);
+		int[] testWids = getQuoteNodes(testTree, testQuotes);
 
-		// the number of undeleted, non-quote terminals that we have seen
-		// consistent with "wid" in evalb
-		int realGoldTerminalCount = 0;
+		// the first test quote-node that follows as many terminals
+		// as the current gold quote-node (or more)
+		int first = 0;
 
 		// iterate over quote-nodes in the gold tree
-		while (goldEn.hasMoreElements()) {
+		for (int g = 0; g < goldQuotes.size(); g++) {
 
-			Node<NodeInfo> goldNode = goldEn.nextElement();
+			Node<NodeInfo> goldNode = goldQuotes.get(g);
+			int realGoldTerminalCount = goldWids[g];
 
-			// skip over non-quote nodes, but count the actual
-			// terminals we have seen so far in the gold enumeration
-			if (!goldNode.getUserObject().isQuote()) {
-				if (goldNode.isLeaf() &&
-						!goldNode.getParent().getUserObject().isDeleted()
-						&& !goldNode.getParent().getUserObject().isQuote()) {
-					realGoldTerminalCount++;
-				}
-				continue;
+			while (first < testQuotes.size() && 
+					testWids[first] < realGoldTerminalCount) {
+				first++;
 			}
 
-			// get a depth-first enumeration of test nodes
-			Enumeration<Node<NodeInfo>> testEn =
-				testTree.depthFirstEnumeration();	
-
-			int realTestTerminalCount = 0;			
+			// the test quote-nodes that follow the same terminal
+			for (int t = first; t < testQuotes.size() && 
+			testWids[t] == realGoldTerminalCount; t++) {
 
-			while (testEn.hasMoreElements()) {
-
-				Node<NodeInfo> testNode = testEn.nextElement();
-
-				// skip over non-quote nodes, but count the actual
-				// terminals we have seen so far in the test enumeration
-				if (!testNode.getUserObject().isQuote()) {
-					if (testNode.isLeaf() &&
-							!testNode.getParent().getUserObject().isDeleted()
-							&& !testNode.getParent().getUserObject().isQuote()) {
-						realTestTerminalCount++; 
-					}		
-					continue;
-				}
+				Node<NodeInfo> testNode = testQuotes.get(t);
+				int realTestTerminalCount = testWids[t];
 
 				// if both nodes follow the same terminal
 				// but have different labels
 
-				if (realGoldTerminalCount == realTestTerminalCount &&
-						!goldNode.getUserObject().getName().equals(
-								testNode.getUserObject().getName())) {
+				if (goldNode.getUserObject().getNameID() !=
+								testNode.getUserObject().getNameID()) {
 
 					// check if goldNode is deleted while testNode is not
 					// if so, UNdelete goldNode
@@ -406,146 +278,293 @@ public class TreeFunctions {
 	}
 
 	/**
-	 * Returns the specified tree without the nodes that had
-	 * an isDeleted marker in their user object
-	 * 
-	 * <b>Note: Children of deleted nodes remain and are moved up
-	 * to take the place of their parent; except for pre-terminals which
-	 * are deleted together with their terminal.</b>
-	 * 
-	 * @returns tree without deleted nodes
+	 * Collects the quote-nodes of a tree in depth-first order, with the 
+	 * number of undeleted, non-quote terminals before them
+	 * (consistent with "wid" in evalb)
+	 * @param tree
+	 * @param quotes the list to add the quote-nodes to
+	 * @return the number of terminals before every quote-node
 	 */
-	public static Node<NodeInfo> getWithoutDeleted(Node<NodeInfo> tree) {
+	private static int[] getQuoteNodes(Node<NodeInfo> tree, 
+			List<Node<NodeInfo>> quotes) {
+
+		int[] wids = new int[8];
+
+		// the number of undeleted, non-quote terminals that we have seen
+		int realTerminalCount = 0;
 
-		Node<NodeInfo> newTree = tree.getRoot().clone();
-		newTree.setUserObject(tree.getUserObject());
+		Enumeration<Node<NodeInfo>> en = tree.depthFirstEnumeration();
+		while (en.hasMoreElements()) {
 
-		Enumeration<Node<NodeInfo>> children = tree.children();
+			Node<NodeInfo> node = en.nextElement();
 
-		while(children.hasMoreElements()) {
-			Node<NodeInfo> child = children.nextElement();
-			addNormalToRoot(child, newTree);
+			// skip over non-quote nodes, but count the actual
+			// terminals we have seen so far
+			if (!node.getUserObject().isQuote()) {
+				if (node.isLeaf() &&
+						!node.getParent().getUserObject().isDeleted()
+						&& !node.getParent().getUserObject().isQuote()) {
+					realTerminalCount++;
+				}
+				continue;
+			}
+
+			if (quotes.size() == wids.length) {
+				wids = Arrays.copyOf(wids, 2 * wids.length);
+			}
+			wids[quotes.size()] = realTerminalCount;
+			quotes.add(node);
 		}
 
-		return newTree;
+		return Arrays.copyOf(wids, quotes.size());
 	}
-	
+
 	/**
-	 * Adds the node (first argument) to the second node (second argument, parent)
-	 * if the node is not marked as isDeleted. If the node is marked as such,
-	 * its children are added to the parent instead. 
+	 * Reduces a tree to the nodes that are evaluated, in place and in a
+	 * single pass:
+	 * <ul>
+	 * <li>the nodes marked as deleted are removed, their children are
+	 * moved up to take their place</li>
+	 * <li>the words get consecutive word IDs, starting with 0, and every
+	 * node gets the start and end of its span (start is the ID of the
+	 * first word it covers, end the ID of the last word plus 1)</li>
+	 * <li>the nodes with empty spans (start == end) are removed like
+	 * the deleted ones</li>
+	 * <li>the leafs (terminals) and pre-terminals are removed</li>
+	 * </ul>
+	 * The nodes are visited in post-order. When all children of a node
+	 * are done, the node is either kept or removed, and a removed node
+	 * hands its (already reduced) children to its parent. Leafs and
+	 * pre-terminals are the nodes less than two levels above a leaf, 
+	 * those are dropped by their parent.
 	 * 
-	 * @param node
-	 * @param parent
+	 * <b>Note: this assumes a deleted pre-terminal also has its terminal
+	 * deleted, as done by 
+	 * {@link #identifyDeleteAndQuoteNodes(Node, EvaluationConfig)}
+	 * and {@link #fixQuotes(Node, Node)}</b>
+	 * @param tree
+	 * @return the label of the pre-terminal of every word, by word ID
+	 * (@see {@link #getCorrectTagCount(int[], int[], EvaluationConfig)})
 	 */
-	public static void addNormalToRoot(Node<NodeInfo> node, 
-			Node<NodeInfo> parent) {
-
-		if (!node.getUserObject().isDeleted()) {
-			Node<NodeInfo> newNode = node.clone();
-			newNode.setUserObject(node.getUserObject());
-			parent.add(newNode);
-			parent = newNode; // change parent to the new node
-		}
+	public static int[] reduceForEvaluation(Node<NodeInfo> tree) {
+
+		int[] tags = new int[16];
+		int wid = 0;
+
+		// the path from the root to the current node
+		List<Reduction> stack = new ArrayList<Reduction>();
+		int depth = 0;
+		stack.add(new Reduction());
+		stack.get(0).reset(tree);
+		depth++;
+
+		while (depth > 0) {
+
+			Reduction r = stack.get(depth - 1);
+
+			// go down to the next child
+			if (r.next < r.node.getChildCount()) {
+				if (depth == stack.size()) {
+					stack.add(new Reduction());
+				}
+				stack.get(depth).reset(r.node.getChildAt(r.next++));
+				depth++;
+				continue;
+			}
+
+			depth--;
+			Node<NodeInfo> node = r.node;
+			NodeInfo info = node.getUserObject();
+			Reduction parent = (depth > 0 ? stack.get(depth - 1) : null);
+
+			// deleted nodes are skipped, their children move up
+			// (our own root element always stays)
+			if (parent != null && info.isDeleted()) {
+				parent.adopt(r);
+				continue;
+			}
+
+			// words get consecutive word IDs, starting with 0
+			if (info.isTerminal()) {
+				info.setWordID(wid);
+				r.start = wid;
+				r.end = wid + 1;
+				if (wid == tags.length) {
+					tags = Arrays.copyOf(tags, 2 * wid);
+				}
+				tags[wid] = node.getParent().getUserObject().getNameID();
+				wid++;
+			}
+
+			info.setStart(r.start);
+			info.setEnd(r.end);
+
+			// nodes with empty spans are deleted as well
+			if (r.start == r.end) {
+				info.setDeleted(true);
+				if (Settings.debug > 4) {
+					System.err.println(String.format(
+							"  EMPTY-SPAN-NODE start=%d, end=%d, node=%s", 
+							r.start, r.end, info));
+				}
+				if (parent != null) {
+					parent.adopt(r);
+					continue;
+				}
+			}
 
-		// parent is either the node's parent or the node itself
-		// i.e. if the node was deleted, we just skip it
-		// and add its children to the parent and not the node
-		Enumeration<Node<NodeInfo>> children = node.children();
-		while(children.hasMoreElements()) {
-			addNormalToRoot(children.nextElement(), parent);
-		}		
+			node.setChildren(r.children);
+			if (parent != null) {
+				parent.add(r);
+			}
+		}
 
+		return Arrays.copyOf(tags, wid);
 	}
 
 	/**
-	 * Removes all leafs from the specified tree
-	 * @param tree
+	 * A node on the path of {@link #reduceForEvaluation(Node)}, with
+	 * what is known of its reduced children
 	 */
-	public static void removeLeafs(Node<NodeInfo> tree) {
+	private static class Reduction {
+
+		Node<NodeInfo> node;
+
+		/**
+		 * The next child to visit
+		 */
+		int next;
+
+		/**
+		 * The children that are kept, or null for none
+		 */
+		List<Node<NodeInfo>> children;
+
+		/**
+		 * The largest height of the children (the distance to the
+		 * farthest leaf below), -1 for no children
+		 */
+		int height;
+
+		/**
+		 * Start and end of the span of the children
+		 * (-1 as long as no word was found)
+		 */
+		int start;
+		int end;
+
+		void reset(Node<NodeInfo> node) {
+			this.node = node;
+			this.next = 0;
+			this.children = null;
+			this.height = -1;
+			this.start = -1;
+			this.end = -1;
+		}
 
-		Enumeration<Node<NodeInfo>> en = tree.preorderEnumeration();
+		/**
+		 * Adds a child that is kept
+		 * (unless it is a leaf or pre-terminal)
+		 */
+		void add(Reduction child) {
+			int childHeight = child.height + 1;
+			if (childHeight >= 2) {
+				addChild(child.node);
+			}
+			height = Math.max(height, childHeight);
+			addSpan(child.start, child.end);
+		}
 
-		// remember what nodes to delete
-		List<Node<NodeInfo>> deleteList = new ArrayList<Node<NodeInfo>>();
+		/**
+		 * Adds the children of a child that is removed
+		 */
+		void adopt(Reduction child) {
+			if (child.children != null) {
+				for (Node<NodeInfo> grandChild : child.children) {
+					addChild(grandChild);
+				}
+			}
+			height = Math.max(height, child.height);
+			addSpan(child.start, child.end);
+		}
 
-		// find leafs
-		while(en.hasMoreElements()) {
-			Node<NodeInfo> node = en.nextElement();
-			if (node.isLeaf()) {
-				deleteList.add(node);
+		private void addChild(Node<NodeInfo> child) {
+			if (children == null) {
+				children = new ArrayList<Node<NodeInfo>>(2);
 			}
+			children.add(child);
 		}
 
-		// delete every node in the list
-		for( Node<NodeInfo> node : deleteList) {
-			node.removeFromParent();
+		private void addSpan(int childStart, int childEnd) {
+			// the first start, the last end
+			// (wordless constituents have no start and end)
+			if (start == -1) {
+				start = childStart;
+			}
+			if (childEnd != -1) {
+				end = childEnd;
+			}
 		}
-	}	
+	}
 
 	/**
 	 * Find out which nodes in the Gold tree have a match in the Test tree
 	 * Each of the matching nodes gets 'true' when matches() is called
 	 * on their NodeInfo
+	 * 
+	 * The test nodes are looked up by their span in a {@link SpanIndex},
+	 * a test node with the same span is only matched once
 	 * @param goldTree
 	 * @param testTree
+	 * @param config
 	 */
-	public static void findMatchingNodes(Node<NodeInfo> goldTree,
-			Node<NodeInfo> testTree) {
+	public static void findMatchingNodes(ArrayTree goldTree,
+			ArrayTree testTree, EvaluationConfig config) {
 
-		Enumeration<Node<NodeInfo>> goldEnum = goldTree.preorderEnumeration();
+		boolean labeled = config.isLabeled();
+		SymbolTable symbols = config.getSymbols();
 
-		// remember which test nodes we have seen do match
-//		int testTreeNodeCount = 0;
-//		Enumeration<Node<NodeInfo>> bmTestEnum = testTree.preorderEnumeration();
-//		while (bmTestEnum.hasMoreElements()) testTreeNodeCount++;
-//		int[] testBracketMatch = new int[testTreeNodeCount]; 
-		
-		// for each gold node
-		while(goldEnum.hasMoreElements()) {
+		SpanIndex testIndex = new SpanIndex(testTree);
 
-			Node<NodeInfo> goldNode = goldEnum.nextElement();
-			NodeInfo goldInfo = goldNode.getUserObject();
+		// for each gold node
+		for(int g = 0; g < goldTree.size(); g++) {
 
-			Enumeration<Node<NodeInfo>> testEnum = 
-				testTree.preorderEnumeration();
+			NodeInfo goldInfo = goldTree.getInfo(g);
 
-			// for each test node
-			while(testEnum.hasMoreElements()) {
+			// for each test node that covers the same terminals
+			for(int t = testIndex.first(goldTree.getStart(g), goldTree.getEnd(g));
+			t != -1; t = testIndex.next(t)) {
 
-				Node<NodeInfo> testNode = testEnum.nextElement();
-				NodeInfo testInfo = testNode.getUserObject();
+				NodeInfo testInfo = testTree.getInfo(t);
 
-				// compare the two nodes
-				// do they cover the same terminals?
-				if ((testInfo.matches() == false) && // only match a node once
-						goldInfo.getStart() == testInfo.getStart() &&
-						goldInfo.getEnd() == testInfo.getEnd()) {
-					
-					// for debug purposes we want to remember if we ever had
-					// a bracket match for a node
-					goldInfo.setBracketMatches(true);
-					testInfo.setBracketMatches(true);
+				if (testInfo.matches()) { // only match a node once
+					continue;
+				}
 					
-					// if we don't care about the label,
-					// or if it matches, we have a hit
-					if (!Settings.getBoolean("labeled") || areEqualLabels(
-							goldInfo.getName(), testInfo.getName()) ) {
-						goldInfo.setMatches(true);
-						testInfo.setMatches(true);
-						break;
-					} else { // no match because of label 
-						if (Settings.debug > 0) { // evalb/legacy debug output
-							System.err.println(String.format(
-									"  LABEL[%d-%d]: %s", 
-									goldInfo.getStart(), 
-									goldInfo.getEnd() - 1, // strange but evalb does this
-									goldInfo.getName()));
-						}
+				// for debug purposes we want to remember if we ever had
+				// a bracket match for a node
+				goldInfo.setBracketMatches(true);
+				testInfo.setBracketMatches(true);
+				
+				// if we don't care about the label,
+				// or if it matches, we have a hit
+				if (!labeled || 
+						symbols.areEqualLabels(
+								goldTree.getLabel(g), testTree.getLabel(t))) {
+					goldInfo.setMatches(true);
+					testInfo.setMatches(true);
+					break;
+				} else { // no match because of label 
+					if (Settings.debug > 0) { // evalb/legacy debug output
+						System.err.println(String.format(
+								"  LABEL[%d-%d]: %s", 
+								goldInfo.getStart(), 
+								goldInfo.getEnd() - 1, // strange but evalb does this
+								goldInfo.getName()));
 					}
 				}
 
-			} // while test
+			} // for test
 			
 			// legacy debug info: gold bracket without test bracket
 			if (Settings.debug > 1 && !goldInfo.bracketMatches() && !goldInfo.matches()) { 
@@ -556,15 +575,13 @@ public class TreeFunctions {
 						goldInfo.getName()));
 			}			
 			
-		} // while gold
+		} // for gold
 		
 		// legacy debug info
 		// test brackets without gold brackets (EXTRA)
-		Enumeration<Node<NodeInfo>> testEnum = testTree.preorderEnumeration();
-		while(testEnum.hasMoreElements()) {
-			Node<NodeInfo> testNode = testEnum.nextElement();
-			NodeInfo testInfo = testNode.getUserObject();
-			if (Settings.debug > 1 && !testInfo.matches() && !testInfo.bracketMatches()) {
+		for(int t = 0; Settings.debug > 1 && t < testTree.size(); t++) {
+			NodeInfo testInfo = testTree.getInfo(t);
+			if (!testInfo.matches() && !testInfo.bracketMatches()) {
 				System.err.println(String.format(
 						"  EXTRA[%d-%d]: %s", 
 						testInfo.getStart(), 
@@ -575,160 +592,175 @@ public class TreeFunctions {
 		
 	} // end findMatchingNodes
 
-
 	/**
-	 * Sets start and end variables for nodes in a tree
-	 * 
-	 * Start indicates the first terminal this node covers MINUS 1
-	 * End indicates the last terminal this node covers
-	 * e.g. covering terminal 1 means start 0 and end 1
-	 * 
-	 * Start and end values make easy comparison possible between nodes
-	 * 
-	 * @param tree
+	 * Count the gold brackets that have a match in the test brackets,
+	 * like {@link #findMatchingNodes(ArrayTree, ArrayTree, EvaluationConfig)}
+	 * does for the nodes (without the debug output of level 2, that needs
+	 * the nodes)
+	 * @param gold
+	 * @param test
+	 * @param config
+	 * @return number of matched gold brackets, without our own root element
 	 */
-	public static void setStartEnd(Node<NodeInfo> tree) {
-
-		// make the all the terminals have an evalb-style word id
-		// i.e. starting with 0 at the first terminal,
-		// and only IDs for terminals we will evaluate / not deleted
-		resetWordIDs(tree);
-
-		// reset start and end for every node
-		setStartEndNode(tree);
+	public static int countMatchingBrackets(Brackets gold, Brackets test,
+			EvaluationConfig config) {
 
-	}
+		boolean labeled = config.isLabeled();
+		SymbolTable symbols = config.getSymbols();
 
-	private static Pair<Integer, Integer> setStartEndNode(Node<NodeInfo> node) {
+		SpanIndex testIndex = new SpanIndex(test);
+		boolean[] testMatches = new boolean[test.size()];
+		int matched = 0;
 
-		// terminals have start=wordid and end wordid+1
-		// we also store those values in the terminal
-		if(node.isLeaf() && node.getUserObject().isTerminal()) {
-			node.getUserObject().setStart(node.getUserObject().getWordID());
-			node.getUserObject().setEnd(node.getUserObject().getWordID()+1);
-			return new Pair<Integer, Integer>(
-					node.getUserObject().getStart(),
-					node.getUserObject().getEnd());
-		}
+		// for each gold bracket
+		for(int g = 0; g < gold.size(); g++) {
 
-		int start = -1;
-		int end = -1;
+			// for each test bracket that covers the same terminals
+			for(int t = testIndex.first(gold.getStart(g), gold.getEnd(g));
+			t != -1; t = testIndex.next(t)) {
 
-		Enumeration<Node<NodeInfo>> children = node.children();
+				if (testMatches[t]) { // only match a bracket once
+					continue;
+				}
 
-		while(children.hasMoreElements()) {
-			Node<NodeInfo> child = children.nextElement();
-			Pair<Integer, Integer> result = setStartEndNode(child);
-			
-			// only update if not yet set
-			if (start == -1) {
-				start = result.getFirst();
-			}
-			// it is possible that there is a wordless constituent
-			// as a second child, and thus it has no word index
-			// in that case, keep the word index we already have 
-			// (e.g. from the first child)
-			if (result.getSecond() != -1) {
-				end = result.getSecond();
+				// if we don't care about the label,
+				// or if it matches, we have a hit
+				if (!labeled || 
+						symbols.areEqualLabels(
+								gold.getLabel(g), test.getLabel(t))) {
+					testMatches[t] = true;
+					if (g > 0) {
+						matched++;
+					}
+					break;
+				} else if (Settings.debug > 0) { // evalb/legacy debug output
+					System.err.println(String.format(
+							"  LABEL[%d-%d]: %s", 
+							gold.getStart(g), 
+							gold.getEnd(g) - 1, // strange but evalb does this
+							symbols.getSymbol(gold.getLabel(g))));
+				}
 			}
 		}
 
-		// set start and end for this node
-		node.getUserObject().setStart(start);
-		node.getUserObject().setEnd(end);
-
-		// return the result (to the parent, probably)
-		return new Pair<Integer, Integer>(start, end);
-
+		return matched;
 	}
 
-	/**
-	 * Sets consecutive word IDs (starting from 0) to all leafs (=words)
-	 * @param tree
-	 */
-	public static void resetWordIDs(Node<NodeInfo> tree) {
-		Enumeration<Node<NodeInfo>> en = tree.depthFirstEnumeration();
-
-		int wid = 0;
-
-		while(en.hasMoreElements()) {
-
-			Node<NodeInfo> node = en.nextElement();
-
-			if (node.isLeaf() && !node.getUserObject().isDeleted()
-					&& node.getUserObject().isTerminal()) {
-				// set word id - first word gets wid=0
-				node.getUserObject().setWordID(wid);
-				wid++;
-			}
-
-		}
-	}
-
-	/**
-	 * Sets Node IDs (starting from 0) to all Nodes in pre-order fashion
-	 * @param tree
-	 */
-	public static void resetNodeIDs(Node<NodeInfo> tree) {
-
-		Enumeration<Node<NodeInfo>> en = tree.preorderEnumeration();
-
-		int nid = 0;
-
-		while(en.hasMoreElements()) {
-			en.nextElement().getUserObject().setNodeID(nid);
-			nid++;
-		}
-		
-	}	
 
 	/**
 	 * Calculates the number of crossing brackets
 	 * e.g. number of cases when neither bracket is contained in the other
+	 * 
+	 * Every test bracket is counted at most once. For the debug output
+	 * we need the first gold bracket (in pre-order) that it crosses.
+	 * Both kinds of crossing are found with a sweep over the sorted 
+	 * spans and a segment tree that keeps the first gold bracket per 
+	 * position, so this takes O((n+m) log n) instead of O(n*m)
+	 * 
 	 * @param tree
 	 * @return
 	 */
-	public static int getCrossing(Node<NodeInfo> goldTree, 
-			Node<NodeInfo> testTree) {
+	public static int getCrossing(Spans goldTree, Spans testTree) {
 
-		int crossing = 0;
-
-		Enumeration<Node<NodeInfo>> testEn = testTree.preorderEnumeration();
-
-		while(testEn.hasMoreElements()) {
-
-			Node<NodeInfo> tn = testEn.nextElement();
-			NodeInfo ti = tn.getUserObject();
+		int goldCount = goldTree.size();
+		int testCount = testTree.size();
 
-			Enumeration<Node<NodeInfo>> goldEn = goldTree.preorderEnumeration();
+		if (goldCount == 0 || testCount == 0) {
+			return 0;
+		}
 
-			while(goldEn.hasMoreElements()) {
+		// positions are shifted so the lowest one becomes 0
+		int min = Integer.MAX_VALUE;
+		int max = Integer.MIN_VALUE;
+		for(int g = 0; g < goldCount; g++) {
+			min = Math.min(min, goldTree.getStart(g));
+			max = Math.max(max, goldTree.getEnd(g));
+		}
+		for(int t = 0; t < testCount; t++) {
+			min = Math.min(min, testTree.getStart(t));
+			max = Math.max(max, testTree.getEnd(t));
+		}
 
-				Node<NodeInfo> gn = goldEn.nextElement();
-				NodeInfo gi = gn.getUserObject();
+		// for every test bracket, the first gold bracket crossing it
+		int[] firstCrossing = new int[testCount];
+		Arrays.fill(firstCrossing, Integer.MAX_VALUE);
 
-				if ((gi.getStart() < ti.getStart() &&
-						gi.getEnd()   > ti.getStart() &&
-						gi.getEnd()   < ti.getEnd()) ||
-						(gi.getStart() > ti.getStart() &&
-								gi.getStart() < ti.getEnd() &&
-								gi.getEnd()   > ti.getEnd())) {
+		int positions = max - min + 1;
+		int[] segmentTree = new int[2 * positions];
 
-					crossing++;
+		// (1) gold starts before test start, and ends inside the test span
+		// sweep over test starts (ascending), add the gold brackets 
+		// that start before it, by their end
+		long[] goldOrder = new long[goldCount];
+		long[] testOrder = new long[testCount];
+		for(int g = 0; g < goldCount; g++) {
+			goldOrder[g] = pack(goldTree.getStart(g) - min, g);
+		}
+		for(int t = 0; t < testCount; t++) {
+			testOrder[t] = pack(testTree.getStart(t) - min, t);
+		}
+		Arrays.sort(goldOrder);
+		Arrays.sort(testOrder);
+
+		Arrays.fill(segmentTree, Integer.MAX_VALUE);
+		for(int i = 0, g = 0; i < testCount; i++) {
+			int t = (int) testOrder[i];
+			for(; g < goldCount && goldTree.getStart((int) goldOrder[g]) < 
+			testTree.getStart(t); g++) {
+				int gi = (int) goldOrder[g];
+				segmentTreeMin(segmentTree, positions, 
+						goldTree.getEnd(gi) - min, gi);
+			}
+			firstCrossing[t] = Math.min(firstCrossing[t], 
+					segmentTreeQuery(segmentTree, positions, 
+							testTree.getStart(t) + 1 - min, 
+							testTree.getEnd(t) - 1 - min));
+		}
 
-					if (Settings.debug > 1) {
-						System.err.println(String.format("  CROSSING[%d-%d]: ",
-								gi.getStart(),
-								gi.getEnd()-1));
-					}		
+		// (2) gold starts inside the test span, and ends after test end
+		// sweep over test ends (descending), add the gold brackets
+		// that end after it, by their start
+		for(int g = 0; g < goldCount; g++) {
+			goldOrder[g] = pack(max - goldTree.getEnd(g), g);
+		}
+		for(int t = 0; t < testCount; t++) {
+			testOrder[t] = pack(max - testTree.getEnd(t), t);
+		}
+		Arrays.sort(goldOrder);
+		Arrays.sort(testOrder);
+
+		Arrays.fill(segmentTree, Integer.MAX_VALUE);
+		for(int i = 0, g = 0; i < testCount; i++) {
+			int t = (int) testOrder[i];
+			for(; g < goldCount && goldTree.getEnd((int) goldOrder[g]) > 
+			testTree.getEnd(t); g++) {
+				int gi = (int) goldOrder[g];
+				segmentTreeMin(segmentTree, positions, 
+						goldTree.getStart(gi) - min, gi);
+			}
+			firstCrossing[t] = Math.min(firstCrossing[t], 
+					segmentTreeQuery(segmentTree, positions, 
+							testTree.getStart(t) + 1 - min, 
+							testTree.getEnd(t) - 1 - min));
+		}
 
-					break;
+		int crossing = 0;
 
-				}
+		// count in pre-order of the test tree
+		for(int t = 0; t < testCount; t++) {
 
+			if (firstCrossing[t] == Integer.MAX_VALUE) {
+				continue;
 			}
 
+			crossing++;
 
+			if (Settings.debug > 1) {
+				int g = firstCrossing[t];
+				System.err.println(String.format("  CROSSING[%d-%d]: ",
+						goldTree.getStart(g),
+						goldTree.getEnd(g)-1));
+			}
 		}
 
 		return crossing;
@@ -736,42 +768,74 @@ public class TreeFunctions {
 	}
 
 	/**
-	 * Get the number of correctly tagged terminals
-	 * <b>Note: we assume there are no deleted terminals in the tree
-	 * All terminals are evaluated here.</b>
-	 * @param goldTree
-	 * @param testTree
-	 * @return number of correct tags
+	 * Packs a (non-negative) sort key and an index in a long, so sorting
+	 * the longs sorts the indexes by key
+	 * @param key
+	 * @param index
+	 * @return packed key and index
 	 */
-	public static int getCorrectTagCount(Node<NodeInfo> goldTree,
-			Node<NodeInfo> testTree) {
-
-		int correctTag = 0;
-
-		Enumeration<Node<NodeInfo>> goldEn = goldTree.preorderEnumeration();
-		Enumeration<Node<NodeInfo>> testEn = testTree.preorderEnumeration();
+	private static long pack(int key, int index) {
+		return ((long) key << 32) | index;
+	}
 
-		// ASSUME: both have the same number of terminals
-		while(goldEn.hasMoreElements()) {
+	/**
+	 * Lowers the value at a position of a (bottom-up) minimum segment tree
+	 * @param tree array of size 2 * positions
+	 * @param positions
+	 * @param position
+	 * @param value
+	 */
+	private static void segmentTreeMin(int[] tree, int positions, 
+			int position, int value) {
+		for(int i = position + positions; i > 0; i >>= 1) {
+			if (tree[i] <= value) {
+				break;
+			}
+			tree[i] = value;
+		}
+	}
 
-			// skip over non-terminal nodes
-			Node<NodeInfo> gn = goldEn.nextElement();
-			if (!gn.getUserObject().isTerminal()) {
-				continue;
+	/**
+	 * Returns the minimum value of a segment tree 
+	 * for the positions from (inclusive) to (inclusive)
+	 * @param tree array of size 2 * positions
+	 * @param positions
+	 * @param from
+	 * @param to
+	 * @return minimum, Integer.MAX_VALUE if empty
+	 */
+	private static int segmentTreeQuery(int[] tree, int positions, 
+			int from, int to) {
+		int result = Integer.MAX_VALUE;
+		for(int l = from + positions, r = to + positions + 1; l < r; 
+		l >>= 1, r >>= 1) {
+			if ((l & 1) == 1) {
+				result = Math.min(result, tree[l++]);
+			}
+			if ((r & 1) == 1) {
+				result = Math.min(result, tree[--r]);
 			}
+		}
+		return result;
+	}
 
-			// now we have in gn a gold terminal
-			// find the corresponding terminal in test
-			Node<NodeInfo> tn = testEn.nextElement();
+	/**
+	 * Get the number of correctly tagged terminals, from the labels of 
+	 * their pre-terminals by word ID
+	 * (@see {@link #reduceForEvaluation(Node)})
+	 * @param goldTags
+	 * @param testTags
+	 * @param config
+	 * @return number of correct tags
+	 */
+	public static int getCorrectTagCount(int[] goldTags, int[] testTags,
+			EvaluationConfig config) {
 
-			while(!tn.getUserObject().isTerminal() && 
-					testEn.hasMoreElements()) {
-				tn = testEn.nextElement();
-			}
+		SymbolTable symbols = config.getSymbols();
+		int correctTag = 0;
 
-			if(areEqualLabels(
-					gn.getParent().getUserObject().getName(), 
-					tn.getParent().getUserObject().getName())) {
+		for (int i = 0; i < goldTags.length && i < testTags.length; i++) {
+			if(symbols.areEqualLabels(goldTags[i], testTags[i])) {
 				correctTag++;
 			}
 		}
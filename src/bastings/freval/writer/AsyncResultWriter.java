@@ -0,0 +1,177 @@
+package bastings.freval.writer;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import bastings.freval.evaluator.EvaluationInfo;
+import bastings.freval.evaluator.SkipEvaluationInfo;
+
+/**
+ * Writes the results with another writer on a thread of its own
+ * (-DasyncOutput=true), so formatting and writing a result does not hold
+ * up the evaluation of the next sentences
+ *
+ * The results are queued in order, a full queue blocks until the writer
+ * thread has caught up. An error of the other writer is thrown by the
+ * next call after it.
+ */
+public class AsyncResultWriter implements ResultWriter {
+
+	/**
+	 * Marks the end of the results
+	 */
+	private static final EvaluationInfo END = new SkipEvaluationInfo(-1, 0);
+
+	private final ResultWriter writer;
+	private final BlockingQueue<EvaluationInfo> queue;
+	private final Thread thread;
+
+	/**
+	 * Number of results queued and written (guarded by this)
+	 */
+	private long queued = 0;
+	private long written = 0;
+
+	/**
+	 * The first error of the writer thread (guarded by this)
+	 */
+	private IOException error = null;
+
+	/**
+	 * Starts the writer thread
+	 * @param writer the writer that writes the results
+	 * @param capacity number of results that can be queued
+	 */
+	public AsyncResultWriter(ResultWriter writer, int capacity) {
+
+		this.writer = writer;
+		this.queue = new ArrayBlockingQueue<EvaluationInfo>(capacity);
+
+		thread = new Thread(new Runnable() {
+			public void run() {
+				writeQueued();
+			}
+		}, "freval-writer");
+
+		// do not keep the program alive if we stop because of an error
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Writes the queued results until the end, after an error the results
+	 * are only taken from the queue
+	 */
+	private void writeQueued() {
+		try {
+			for (EvaluationInfo result = queue.take(); result != END;
+			result = queue.take()) {
+
+				boolean failed;
+				synchronized (this) {
+					failed = (error != null);
+				}
+
+				if (!failed) {
+					try {
+						writer.write(result);
+					} catch (IOException e) {
+						synchronized (this) {
+							error = e;
+						}
+					}
+				}
+
+				synchronized (this) {
+					written++;
+					notifyAll();
+				}
+			}
+		} catch (InterruptedException e) {
+			synchronized (this) {
+				if (error == null) {
+					error = new InterruptedIOException(
+							"Writing the results was interrupted");
+				}
+				notifyAll();
+			}
+		}
+	}
+
+	public void writeHeader() throws IOException {
+		// (nothing is queued before the header)
+		writer.writeHeader();
+	}
+
+	public void write(EvaluationInfo result) throws IOException {
+
+		checkError();
+
+		synchronized (this) {
+			queued++;
+		}
+
+		try {
+			queue.put(result);
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException(
+					"Writing the results was interrupted");
+		}
+	}
+
+	/**
+	 * Waits until all queued results have been written, and then flushes
+	 * the other writer
+	 */
+	public void flush() throws IOException {
+		waitForQueue();
+		checkError();
+		writer.flush();
+	}
+
+	public void close() throws IOException {
+
+		waitForQueue();
+
+		try {
+			if (thread.isAlive()) {
+				queue.put(END);
+				thread.join();
+			}
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException(
+					"Writing the results was interrupted");
+		}
+
+		checkError();
+		writer.close();
+	}
+
+	/**
+	 * Waits until the writer thread has written all queued results
+	 * (or has stopped)
+	 * @throws IOException if waiting is interrupted
+	 */
+	private synchronized void waitForQueue() throws IOException {
+		while (written < queued && thread.isAlive()) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				throw new InterruptedIOException(
+						"Writing the results was interrupted");
+			}
+		}
+	}
+
+	/**
+	 * @throws IOException the first error of the writer thread
+	 */
+	private synchronized void checkError() throws IOException {
+		if (error != null) {
+			throw error;
+		}
+	}
+
+}
@@ -0,0 +1,161 @@
+package bastings.freval.writer;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+
+import bastings.freval.evaluator.BudgetEvaluationInfo;
+import bastings.freval.evaluator.DefaultEvaluationInfo;
+import bastings.freval.evaluator.EvaluationInfo;
+import bastings.freval.evaluator.SkipEvaluationInfo;
+import bastings.freval.util.FragmentCounts;
+
+/**
+ * Writes the results as compact binary records, one per sentence
+ * (-Dformat=binary)
+ *
+ * The output starts with the magic number {@link #MAGIC} (4 bytes) and
+ * the format {@link #VERSION} (1 byte). A record is:
+ *
+ * 	status       1 byte, {@link #OK}, {@link #BUDGET}, {@link #SKIP}
+ * 	             or {@link #ERROR}
+ * 	ID, length   signed varints
+ *
+ * and then for OK and Budget:
+ *
+ * 	crossing, words, correct tags      signed varints
+ * 	n                                  varint, number of fragment sizes
+ * 	n times matched, gold, test count  varints, by size from size 1 on
+ *
+ * an Error has the byte length (varint) and UTF-8 bytes of its message,
+ * a Skip nothing more.
+ *
+ * A varint has 7 bits per byte, least significant first, the high bit is
+ * set on every byte but the last, so counts of any size are exact. Signed
+ * varints are zigzag-encoded (0, -1, 1, -2, ... become 0, 1, 2, 3, ...).
+ * Multi-byte numbers other than varints are big-endian.
+ */
+public class BinaryResultWriter implements ResultWriter {
+
+	/**
+	 * "FRVR"
+	 */
+	public static final int MAGIC = 0x46525652;
+	public static final int VERSION = 1;
+
+	/**
+	 * Record status
+	 */
+	public static final int OK = 0;
+	public static final int BUDGET = 1;
+	public static final int SKIP = 2;
+	public static final int ERROR = 3;
+
+	private final OutputStream stream;
+	private final DataOutputStream out;
+
+	/**
+	 * @param stream output
+	 */
+	public BinaryResultWriter(OutputStream stream) {
+		this.stream = stream;
+		this.out = new DataOutputStream(
+				new BufferedOutputStream(stream, 1 << 16));
+	}
+
+	public void writeHeader() throws IOException {
+		out.writeInt(MAGIC);
+		out.writeByte(VERSION);
+	}
+
+	public void write(EvaluationInfo result) throws IOException {
+
+		DefaultEvaluationInfo info = result.getCounted();
+		if (info != null) {
+
+			out.writeByte(result instanceof BudgetEvaluationInfo ? BUDGET : OK);
+			writeSigned(result.getTreeID());
+			writeSigned(result.getSentenceLength());
+			writeSigned(info.getCrossing());
+			writeSigned(info.getGoldWordCount());
+			writeSigned(info.getCorrectTag());
+
+			FragmentCounts counts = info.getCounts();
+			writeUnsigned(counts.size());
+			for (int fragmentSize = 1; fragmentSize <= counts.size();
+			fragmentSize++) {
+				writeCount(counts.getNumber(FragmentCounts.MATCHED, fragmentSize));
+				writeCount(counts.getNumber(FragmentCounts.GOLD, fragmentSize));
+				writeCount(counts.getNumber(FragmentCounts.TEST, fragmentSize));
+			}
+
+		} else if (result instanceof SkipEvaluationInfo) {
+
+			out.writeByte(SKIP);
+			writeSigned(result.getTreeID());
+			writeSigned(result.getSentenceLength());
+
+		} else {
+
+			out.writeByte(ERROR);
+			writeSigned(result.getTreeID());
+			writeSigned(result.getSentenceLength());
+			byte[] message = result.getMessage().getBytes(
+					StandardCharsets.UTF_8);
+			writeUnsigned(message.length);
+			out.write(message);
+		}
+	}
+
+	/**
+	 * Writes a non-negative number as a varint
+	 */
+	private void writeUnsigned(long value) throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			out.writeByte((int) (value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte((int) value);
+	}
+
+	/**
+	 * Writes a number as a zigzag-encoded varint
+	 */
+	private void writeSigned(int value) throws IOException {
+		writeUnsigned(((value << 1) ^ (value >> 31)) & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Writes a count (a Long or a BigInteger) as a varint
+	 */
+	private void writeCount(Number count) throws IOException {
+
+		if (count instanceof Long) {
+			writeUnsigned(count.longValue());
+			return;
+		}
+
+		BigInteger value = (BigInteger) count;
+		while (value.bitLength() > 7) {
+			out.writeByte(value.intValue() & 0x7F | 0x80);
+			value = value.shiftRight(7);
+		}
+		out.writeByte(value.intValue());
+	}
+
+	public void flush() throws IOException {
+		out.flush();
+	}
+
+	public void close() throws IOException {
+		if (stream == System.out) {
+			flush();
+		} else {
+			out.close();
+		}
+	}
+
+}
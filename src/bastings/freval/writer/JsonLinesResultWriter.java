@@ -0,0 +1,123 @@
+package bastings.freval.writer;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+import bastings.freval.evaluator.DefaultEvaluationInfo;
+import bastings.freval.evaluator.EvaluationInfo;
+import bastings.freval.util.FragmentCounts;
+
+/**
+ * Writes the results as JSON Lines, one object per sentence
+ * (-Dformat=jsonl), e.g.
+ *
+ * 	{"id":5,"length":5,"status":"OK","crossing":0,"words":4,
+ * 	"correctTags":3,"matched":[3,2],"gold":[3,2],"test":[3,2]}
+ *
+ * The fragment counts are arrays by fragment size from size 1 on. An
+ * error only has its "message" after the status, and a skipped sentence
+ * nothing.
+ */
+public class JsonLinesResultWriter implements ResultWriter {
+
+	private final OutputStream stream;
+	private final Writer out;
+	private final StringBuilder line = new StringBuilder(256);
+
+	/**
+	 * @param stream output, the results are written in UTF-8
+	 */
+	public JsonLinesResultWriter(OutputStream stream) {
+		this.stream = stream;
+		this.out = new BufferedWriter(
+				new OutputStreamWriter(stream, StandardCharsets.UTF_8), 1 << 16);
+	}
+
+	public void writeHeader() throws IOException {
+		// every line stands on its own
+	}
+
+	public void write(EvaluationInfo result) throws IOException {
+
+		line.setLength(0);
+		line.append("{\"id\":").append(result.getTreeID());
+		line.append(",\"length\":").append(result.getSentenceLength());
+		line.append(",\"status\":");
+		appendString(result.getStatus());
+
+		DefaultEvaluationInfo info = result.getCounted();
+		if (info != null) {
+
+			line.append(",\"crossing\":").append(info.getCrossing());
+			line.append(",\"words\":").append(info.getGoldWordCount());
+			line.append(",\"correctTags\":").append(info.getCorrectTag());
+
+			FragmentCounts counts = info.getCounts();
+			line.append(",\"matched\":");
+			appendCounts(counts, FragmentCounts.MATCHED);
+			line.append(",\"gold\":");
+			appendCounts(counts, FragmentCounts.GOLD);
+			line.append(",\"test\":");
+			appendCounts(counts, FragmentCounts.TEST);
+		}
+
+		String message = result.getMessage();
+		if (message != null) {
+			line.append(",\"message\":");
+			appendString(message);
+		}
+
+		line.append("}\n");
+		out.append(line);
+	}
+
+	/**
+	 * Appends the counts of a kind as an array
+	 */
+	private void appendCounts(FragmentCounts counts, int kind) {
+		line.append('[');
+		for (int fragmentSize = 1; fragmentSize <= counts.size();
+		fragmentSize++) {
+			if (fragmentSize > 1) {
+				line.append(',');
+			}
+			line.append(counts.getNumber(kind, fragmentSize));
+		}
+		line.append(']');
+	}
+
+	/**
+	 * Appends a string in quotes, escaped
+	 */
+	private void appendString(String s) {
+		line.append('"');
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c == '"' || c == '\\') {
+				line.append('\\').append(c);
+			} else if (c < 0x20) {
+				line.append(String.format("\\u%04x", (int) c));
+			} else {
+				line.append(c);
+			}
+		}
+		line.append('"');
+	}
+
+	public void flush() throws IOException {
+		out.flush();
+	}
+
+	public void close() throws IOException {
+		if (stream == System.out) {
+			flush();
+		} else {
+			out.close();
+		}
+	}
+
+}
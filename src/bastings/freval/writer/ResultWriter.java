@@ -0,0 +1,41 @@
+package bastings.freval.writer;
+
+import java.io.IOException;
+
+import bastings.freval.evaluator.EvaluationInfo;
+
+/**
+ * Writes the results of the sentences one by one, in the order they
+ * are evaluated (set with -Dformat, @see {@link TextResultWriter},
+ * {@link TsvResultWriter}, {@link JsonLinesResultWriter} and
+ * {@link BinaryResultWriter})
+ */
+public interface ResultWriter {
+
+	/**
+	 * Writes what comes before the results (e.g. the column names)
+	 * @throws IOException
+	 */
+	public void writeHeader() throws IOException;
+
+	/**
+	 * Writes the result of a sentence
+	 * @param result
+	 * @throws IOException
+	 */
+	public void write(EvaluationInfo result) throws IOException;
+
+	/**
+	 * Writes out all results written so far
+	 * @throws IOException
+	 */
+	public void flush() throws IOException;
+
+	/**
+	 * Writes out all results and closes the output
+	 * (the standard output is only flushed)
+	 * @throws IOException
+	 */
+	public void close() throws IOException;
+
+}
@@ -0,0 +1,70 @@
+package bastings.freval.writer;
+
+import java.io.IOException;
+import java.io.PrintStream;
+
+import bastings.freval.evaluator.EvaluationInfo;
+
+/**
+ * Writes the results as the table for humans, one row per sentence and
+ * fragment size (the default format)
+ *
+ * The stream should be buffered, a row is not flushed on its own
+ * (a PrintStream does not throw, errors are only reported when the
+ * results are flushed).
+ */
+public class TextResultWriter implements ResultWriter {
+
+	private final PrintStream out;
+
+	/**
+	 * @param out
+	 */
+	public TextResultWriter(PrintStream out) {
+		this.out = out;
+	}
+
+	public void writeHeader() throws IOException {
+
+		// print the columns
+		out.println(String.format(
+				"%4s    %4s    %4s    " +
+				"%6s    %6s    " +
+				"%8s    %8s    %8s    " +
+				"%4s    %4s    " +
+				"%4s    %6s    %6s",
+				"ID", "Len", "N",
+				"R", "P",
+				"Matched", "GoldFrag", "TestFrag",
+				"XBkt", "Wrds",
+				"TgOK", "TagAcc", "Status"));
+	}
+
+	public void write(EvaluationInfo result) throws IOException {
+		out.print(result);
+	}
+
+	public void flush() throws IOException {
+		out.flush();
+		checkError();
+	}
+
+	public void close() throws IOException {
+		if (out == System.out) {
+			flush();
+		} else {
+			out.close();
+			checkError();
+		}
+	}
+
+	/**
+	 * @throws IOException if the stream has had an error
+	 */
+	private void checkError() throws IOException {
+		if (out.checkError()) {
+			throw new IOException("Error writing the results");
+		}
+	}
+
+}
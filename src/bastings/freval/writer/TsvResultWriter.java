@@ -0,0 +1,108 @@
+package bastings.freval.writer;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+import bastings.freval.evaluator.DefaultEvaluationInfo;
+import bastings.freval.evaluator.EvaluationInfo;
+import bastings.freval.util.FragmentCounts;
+
+/**
+ * Writes the results as tab-separated values, one line per sentence
+ * (-Dformat=tsv)
+ *
+ * The first line has the column names:
+ *
+ * 	ID Len Status XBkt Wrds TgOK Matched GoldFrag TestFrag Message
+ *
+ * The fragment counts are comma-separated, by fragment size from size 1
+ * on (empty for a sentence without counts). The message is only there
+ * for an error.
+ */
+public class TsvResultWriter implements ResultWriter {
+
+	private final OutputStream stream;
+	private final Writer out;
+	private final StringBuilder line = new StringBuilder(256);
+
+	/**
+	 * @param stream output, the results are written in UTF-8
+	 */
+	public TsvResultWriter(OutputStream stream) {
+		this.stream = stream;
+		this.out = new BufferedWriter(
+				new OutputStreamWriter(stream, StandardCharsets.UTF_8), 1 << 16);
+	}
+
+	public void writeHeader() throws IOException {
+		out.write("ID\tLen\tStatus\tXBkt\tWrds\tTgOK\t" +
+				"Matched\tGoldFrag\tTestFrag\tMessage\n");
+	}
+
+	public void write(EvaluationInfo result) throws IOException {
+
+		line.setLength(0);
+		line.append(result.getTreeID()).append('\t');
+		line.append(result.getSentenceLength()).append('\t');
+		line.append(result.getStatus()).append('\t');
+
+		DefaultEvaluationInfo info = result.getCounted();
+		if (info != null) {
+
+			line.append(info.getCrossing()).append('\t');
+			line.append(info.getGoldWordCount()).append('\t');
+			line.append(info.getCorrectTag()).append('\t');
+
+			FragmentCounts counts = info.getCounts();
+			appendCounts(counts, FragmentCounts.MATCHED);
+			line.append('\t');
+			appendCounts(counts, FragmentCounts.GOLD);
+			line.append('\t');
+			appendCounts(counts, FragmentCounts.TEST);
+			line.append('\t');
+
+		} else {
+			line.append("0\t0\t0\t\t\t\t");
+		}
+
+		String message = result.getMessage();
+		if (message != null) {
+			// (keep it on one line, in one column)
+			line.append(message.replace('\t', ' ').replace('\n', ' ')
+					.replace('\r', ' '));
+		}
+
+		line.append('\n');
+		out.append(line);
+	}
+
+	/**
+	 * Appends the counts of a kind, comma-separated
+	 */
+	private void appendCounts(FragmentCounts counts, int kind) {
+		for (int fragmentSize = 1; fragmentSize <= counts.size();
+		fragmentSize++) {
+			if (fragmentSize > 1) {
+				line.append(',');
+			}
+			line.append(counts.getNumber(kind, fragmentSize));
+		}
+	}
+
+	public void flush() throws IOException {
+		out.flush();
+	}
+
+	public void close() throws IOException {
+		if (stream == System.out) {
+			flush();
+		} else {
+			out.close();
+		}
+	}
+
+}